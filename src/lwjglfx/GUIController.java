@@ -30,20 +30,22 @@ package lwjglfx;/*
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import org.lwjgl.util.stream.RenderStream.AdaptiveBuffering;
+import org.lwjgl.util.stream.RenderStream.BackPressure;
+import org.lwjgl.util.stream.RenderStream.PostAntialiasing;
 import org.lwjgl.util.stream.StreamHandler;
 import org.lwjgl.util.stream.StreamUtil;
 import org.lwjgl.util.stream.StreamUtil.RenderStreamFactory;
 import org.lwjgl.util.stream.StreamUtil.TextureStreamFactory;
+import org.lwjgl.util.stream.fx.NodeTextureSource;
+import org.lwjgl.util.stream.fx.StreamPresenter;
 
 import java.net.URL;
-import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.ResourceBundle;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Semaphore;
 
-import javafx.animation.AnimationTimer;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.application.Platform;
@@ -54,22 +56,16 @@ import javafx.event.*;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.Node;
-import javafx.scene.SnapshotParameters;
-import javafx.scene.SnapshotResult;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.Slider;
 import javafx.scene.image.ImageView;
-import javafx.scene.image.PixelFormat;
-import javafx.scene.image.PixelWriter;
-import javafx.scene.image.WritableImage;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.AnchorPane;
 import javafx.scene.web.WebEngine;
 import javafx.scene.web.WebEvent;
 import javafx.scene.web.WebView;
-import javafx.util.Callback;
 import javafx.util.Duration;
 import javafx.util.StringConverter;
 
@@ -93,8 +89,10 @@ public class GUIController implements Initializable {
 	@FXML private ChoiceBox<RenderStreamFactory>  renderChoice;
 	@FXML private ChoiceBox<TextureStreamFactory> textureChoice;
 	@FXML private ChoiceBox<BufferingChoice>      bufferingChoice;
+	@FXML private ChoiceBox<BackPressure>         backPressureChoice;
 
-	@FXML private Slider msaaSamples;
+	@FXML private Slider   msaaSamples;
+	@FXML private CheckBox fxaa;
 
 	@FXML private WebView webView;
 
@@ -126,6 +124,7 @@ public class GUIController implements Initializable {
 		systemInfoLabel.setText(info.toString());
 
 		bufferingChoice.setItems(observableArrayList(BufferingChoice.values()));
+		backPressureChoice.setItems(observableArrayList(BackPressure.values()));
 
 		msaaSamples.setMin(0);
 		msaaSamples.setMax(0);
@@ -156,100 +155,11 @@ public class GUIController implements Initializable {
 	}
 
 	private StreamHandler getReadHandler() {
-		return new StreamHandler() {
-
-			private WritableImage renderImage;
-
-			private long frame;
-			private long lastUpload;
-
-			{
-				new AnimationTimer() {
-					@Override
-					public void handle(final long now) {
-						frame++;
-					}
-				}.start();
-			}
-
-			public int getWidth() {
-				return (int)gearsView.getFitWidth();
-			}
-
-			public int getHeight() {
-				return (int)gearsView.getFitHeight();
-			}
-
-			public void process(final int width, final int height, final ByteBuffer data, final int stride, final Semaphore signal) {
-				// This method runs in the background rendering thread
-				Platform.runLater(new Runnable() {
-					public void run() {
-						try {
-							// If we're quitting, discard update
-							if ( !gearsView.isVisible() )
-								return;
-
-							// Detect resize and recreate the image
-							if ( renderImage == null || (int)renderImage.getWidth() != width || (int)renderImage.getHeight() != height ) {
-								renderImage = new WritableImage(width, height);
-								gearsView.setImage(renderImage);
-							}
-
-							// Throttling, only update the JavaFX view once per frame.
-							// *NOTE*: The +1 is weird here, but apparently setPixels triggers a new pulse within the current frame.
-							// If we ignore that, we'd get a) worse performance from uploading double the frames and b) exceptions
-							// on certain configurations (e.g. Nvidia GPU with the D3D pipeline).
-							if ( frame <= lastUpload + 1 )
-								return;
-
-							lastUpload = frame;
-
-							// Upload the image to JavaFX
-							PixelWriter pw = renderImage.getPixelWriter();
-							pw.setPixels(0, 0, width, height, pw.getPixelFormat(), data, stride);
-						} finally {
-							// Notify the render thread that we're done processing
-							signal.release();
-						}
-					}
-				});
-			}
-		};
+		return new StreamPresenter(gearsView);
 	}
 
 	private StreamHandler getWriteHandler() {
-		return new StreamHandler() {
-
-			private WritableImage webImage;
-
-			public int getWidth() {
-				return (int)webView.getWidth();
-			}
-
-			public int getHeight() {
-				return (int)webView.getHeight();
-			}
-
-			public void process(final int width, final int height, final ByteBuffer buffer, final int stride, final Semaphore signal) {
-				// This method runs in the background rendering thread
-				Platform.runLater(new Runnable() {
-					public void run() {
-						if ( webImage == null || webImage.getWidth() != width || webImage.getHeight() != height )
-							webImage = new WritableImage(width, height);
-
-						webView.snapshot(new Callback<SnapshotResult, Void>() {
-							public Void call(final SnapshotResult snapshotResult) {
-								snapshotResult.getImage().getPixelReader().getPixels(0, 0, width, height, PixelFormat.getByteBgraPreInstance(), buffer, stride);
-
-								signal.release();
-								return null;
-
-							}
-						}, new SnapshotParameters(), webImage);
-					}
-				});
-			}
-		};
+		return new NodeTextureSource(webView);
 	}
 
 	// This method will run in the background rendering thread
@@ -312,6 +222,14 @@ public class GUIController implements Initializable {
 				bufferingChoice.getSelectionModel().selectedItemProperty().addListener(new ChangeListener<BufferingChoice>() {
 					public void changed(final ObservableValue<? extends BufferingChoice> observableValue, final BufferingChoice oldValue, final BufferingChoice newValue) {
 						gears.setTransfersToBuffer(newValue.getTransfersToBuffer());
+						gears.setAdaptiveBuffering(newValue.getAdaptiveBuffering());
+					}
+				});
+
+				backPressureChoice.getSelectionModel().select(gears.getBackPressure());
+				backPressureChoice.getSelectionModel().selectedItemProperty().addListener(new ChangeListener<BackPressure>() {
+					public void changed(final ObservableValue<? extends BackPressure> observableValue, final BackPressure oldValue, final BackPressure newValue) {
+						gears.setBackPressure(newValue);
 					}
 				});
 
@@ -333,6 +251,13 @@ public class GUIController implements Initializable {
 					});
 				}
 
+				fxaa.disableProperty().bind(gears.postAntialiasingSupportedProperty().not());
+				fxaa.selectedProperty().addListener(new ChangeListener<Boolean>() {
+					public void changed(final ObservableValue<? extends Boolean> observableValue, final Boolean oldValue, final Boolean newValue) {
+						gears.setPostAntialiasing(newValue ? PostAntialiasing.FXAA : PostAntialiasing.OFF);
+					}
+				});
+
 				// Listen for changes to the WebView contents.
 				final ChangeListener<Number> numberListener = new ChangeListener<Number>() {
 					public void changed(final ObservableValue<? extends Number> observableValue, final Number oldValue, final Number newValue) {
@@ -394,20 +319,34 @@ public class GUIController implements Initializable {
 	private enum BufferingChoice {
 		SINGLE(1, "No buffering"),
 		DOUBLE(2, "Double buffering"),
-		TRIPLE(3, "Triple buffering");
+		TRIPLE(3, "Triple buffering"),
+		ADAPTIVE_LATENCY(2, AdaptiveBuffering.LATENCY, "Adaptive - Low latency"),
+		ADAPTIVE_THROUGHPUT(3, AdaptiveBuffering.THROUGHPUT, "Adaptive - High throughput");
 
-		private final int    transfersToBuffer;
-		private final String description;
+		private final int               transfersToBuffer;
+		private final AdaptiveBuffering adaptiveBuffering;
+		private final String            description;
 
 		private BufferingChoice(final int transfersToBuffer, final String description) {
 			this.transfersToBuffer = transfersToBuffer;
+			this.adaptiveBuffering = AdaptiveBuffering.OFF;
 			this.description = transfersToBuffer + "x - " + description;
 		}
 
+		private BufferingChoice(final int transfersToBuffer, final AdaptiveBuffering adaptiveBuffering, final String description) {
+			this.transfersToBuffer = transfersToBuffer;
+			this.adaptiveBuffering = adaptiveBuffering;
+			this.description = description;
+		}
+
 		public int getTransfersToBuffer() {
 			return transfersToBuffer;
 		}
 
+		public AdaptiveBuffering getAdaptiveBuffering() {
+			return adaptiveBuffering;
+		}
+
 		public String getDescription() {
 			return description;
 		}
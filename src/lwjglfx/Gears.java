@@ -35,7 +35,11 @@ import org.lwjgl.BufferUtils;
 import org.lwjgl.LWJGLException;
 import org.lwjgl.opengl.*;
 import org.lwjgl.util.stream.RenderStream;
+import org.lwjgl.util.stream.RenderStream.AdaptiveBuffering;
+import org.lwjgl.util.stream.RenderStream.BackPressure;
+import org.lwjgl.util.stream.RenderStream.PostAntialiasing;
 import org.lwjgl.util.stream.StreamHandler;
+import org.lwjgl.util.stream.StreamOrientation;
 import org.lwjgl.util.stream.StreamUtil;
 import org.lwjgl.util.stream.StreamUtil.RenderStreamFactory;
 import org.lwjgl.util.stream.StreamUtil.TextureStreamFactory;
@@ -47,6 +51,8 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
 import javafx.beans.property.ReadOnlyIntegerProperty;
 import javafx.beans.property.ReadOnlyIntegerWrapper;
 
@@ -63,6 +69,9 @@ final class Gears {
 	private static final float VIEW_ROT_Y = 25.0f;
 	private static final float VIEW_ROT_Z = 0.0f;
 
+	// Coalesce the size changes while the window is being resized
+	private static final long RESIZE_SETTLE_TIME = 100L;
+
 	static Drawable drawable;
 
 	private final ConcurrentLinkedQueue<Runnable> pendingRunnables;
@@ -71,6 +80,7 @@ final class Gears {
 	private final int     maxSamples;
 
 	private final ReadOnlyIntegerWrapper fps;
+	private final ReadOnlyBooleanWrapper postAntialiasingSupported;
 
 	private RenderStreamFactory renderStreamFactory;
 	private RenderStream        renderStream;
@@ -89,6 +99,10 @@ final class Gears {
 	private int transfersToBuffer = 2;
 	private int samples           = 1;
 
+	private BackPressure      backPressure      = BackPressure.BLOCK;
+	private AdaptiveBuffering adaptiveBuffering = AdaptiveBuffering.OFF;
+	private PostAntialiasing  postAntialiasing  = PostAntialiasing.OFF;
+
 	private final AtomicLong snapshotRequest;
 	private       long       snapshotCurrent;
 
@@ -96,6 +110,7 @@ final class Gears {
 		this.pendingRunnables = new ConcurrentLinkedQueue<Runnable>();
 
 		this.fps = new ReadOnlyIntegerWrapper(this, "fps", 0);
+		this.postAntialiasingSupported = new ReadOnlyBooleanWrapper(this, "postAntialiasingSupported", false);
 
 		if ( (Pbuffer.getCapabilities() & Pbuffer.PBUFFER_SUPPORTED) == 0 )
 			throw new UnsupportedOperationException("Support for pbuffers is required.");
@@ -124,10 +139,10 @@ final class Gears {
 			glDebugMessageCallbackAMD(new AMDDebugOutputCallback());
 
 		this.renderStreamFactory = StreamUtil.getRenderStreamImplementation();
-		this.renderStream = renderStreamFactory.create(readHandler, 1, transfersToBuffer);
+		this.renderStream = createRenderStream(readHandler);
 
 		this.textureStreamFactory = StreamUtil.getTextureStreamImplementation();
-		this.textureStream = textureStreamFactory.create(writeHandler, transfersToBuffer);
+		this.textureStream = createTextureStream(writeHandler);
 
 		this.snapshotRequest = new AtomicLong();
 		this.snapshotCurrent = -1L;
@@ -149,9 +164,30 @@ final class Gears {
 
 				Gears.this.renderStreamFactory = renderStreamFactory;
 
-				renderStream = renderStreamFactory.create(renderStream.getHandler(), samples, transfersToBuffer);
+				renderStream = createRenderStream(renderStream.getHandler());
+			}
+		});
+	}
+
+	private RenderStream createRenderStream(final StreamHandler handler) {
+		final RenderStream renderStream = renderStreamFactory.create(handler, samples, transfersToBuffer);
+		renderStream.setBackPressure(backPressure);
+		renderStream.setAdaptiveBuffering(adaptiveBuffering);
+
+		// Streams ignore the modes they do not support
+		renderStream.setPostAntialiasing(PostAntialiasing.FXAA);
+		final boolean fxaaSupported = renderStream.getPostAntialiasing() == PostAntialiasing.FXAA;
+		renderStream.setPostAntialiasing(postAntialiasing);
+		Platform.runLater(new Runnable() {
+			public void run() {
+				postAntialiasingSupported.set(fxaaSupported);
 			}
 		});
+
+		renderStream.setResizeSettleTime(RESIZE_SETTLE_TIME);
+		// JavaFX images are top-down
+		renderStream.setOrientation(StreamOrientation.TOP_DOWN);
+		return renderStream;
 	}
 
 	public TextureStreamFactory getTextureStreamFactory() {
@@ -166,13 +202,22 @@ final class Gears {
 
 				Gears.this.textureStreamFactory = textureStreamFactory;
 
-				textureStream = textureStreamFactory.create(textureStream.getHandler(), transfersToBuffer);
+				textureStream = createTextureStream(textureStream.getHandler());
 				updateSnapshot();
 			}
 		});
 
 	}
 
+	private TextureStream createTextureStream(final StreamHandler handler) {
+		final TextureStream textureStream = textureStreamFactory.create(handler, transfersToBuffer);
+		// The WebView snapshots are top-down
+		textureStream.setOrientation(StreamOrientation.TOP_DOWN);
+		// The handler reports the tiles that changed
+		textureStream.setDamageTracking(true);
+		return textureStream;
+	}
+
 	private void init() {
 		// setup ogl
 		FloatBuffer pos = BufferUtils.createFloatBuffer(4).put(new float[] { 5.0f, 5.0f, 10.0f, 0.0f });
@@ -234,6 +279,11 @@ final class Gears {
 		return fps.getReadOnlyProperty();
 	}
 
+	/** True if the current render stream supports FXAA. */
+	public ReadOnlyBooleanProperty postAntialiasingSupportedProperty() {
+		return postAntialiasingSupported.getReadOnlyProperty();
+	}
+
 	private void destroy() {
 		renderStream.destroy();
 		textureStream.destroy();
@@ -260,6 +310,19 @@ final class Gears {
 		resetStreams();
 	}
 
+	public void setAdaptiveBuffering(final AdaptiveBuffering adaptiveBuffering) {
+		pendingRunnables.offer(new Runnable() {
+			public void run() {
+				Gears.this.adaptiveBuffering = adaptiveBuffering;
+				renderStream.setAdaptiveBuffering(adaptiveBuffering);
+
+				// Back to fixed buffering, undo any changes
+				if ( adaptiveBuffering == AdaptiveBuffering.OFF && renderStream.getTransfersToBuffer() != transfersToBuffer )
+					resetStreams();
+			}
+		});
+	}
+
 	public void setSamples(final int samples) {
 		if ( this.samples == samples )
 			return;
@@ -268,14 +331,36 @@ final class Gears {
 		resetStreams();
 	}
 
+	public void setPostAntialiasing(final PostAntialiasing postAntialiasing) {
+		pendingRunnables.offer(new Runnable() {
+			public void run() {
+				Gears.this.postAntialiasing = postAntialiasing;
+				renderStream.setPostAntialiasing(postAntialiasing);
+			}
+		});
+	}
+
+	public BackPressure getBackPressure() {
+		return backPressure;
+	}
+
+	public void setBackPressure(final BackPressure backPressure) {
+		pendingRunnables.offer(new Runnable() {
+			public void run() {
+				Gears.this.backPressure = backPressure;
+				renderStream.setBackPressure(backPressure);
+			}
+		});
+	}
+
 	private void resetStreams() {
 		pendingRunnables.offer(new Runnable() {
 			public void run() {
 				textureStream.destroy();
 				renderStream.destroy();
 
-				renderStream = renderStreamFactory.create(renderStream.getHandler(), samples, transfersToBuffer);
-				textureStream = textureStreamFactory.create(textureStream.getHandler(), transfersToBuffer);
+				renderStream = createRenderStream(renderStream.getHandler());
+				textureStream = createTextureStream(textureStream.getHandler());
 
 				updateSnapshot();
 			}
@@ -304,10 +389,9 @@ final class Gears {
 			drainPendingActionsQueue();
 
 			final long snapshotRequestID = snapshotRequest.get();
-			if ( snapshotCurrent < snapshotRequestID ) {
-				textureStream.snapshot();
+			// A skipped snapshot is retried on the next frame
+			if ( snapshotCurrent < snapshotRequestID && textureStream.snapshot() )
 				snapshotCurrent = snapshotRequestID;
-			}
 			textureStream.tick();
 
 			renderStream.bind();
@@ -323,7 +407,7 @@ final class Gears {
 			glEnable(GL_TEXTURE_2D);
 
 			textureStream.bind();
-			drawQuad(textureStream.getWidth(), textureStream.getHeight());
+			drawQuad(textureStream.getWidth(), textureStream.getHeight(), textureStream.getOrientation() == StreamOrientation.BOTTOM_UP);
 			glBindTexture(GL_TEXTURE_2D, 0);
 
 			glDisable(GL_TEXTURE_2D);
@@ -378,7 +462,12 @@ final class Gears {
 		}
 	}
 
-	private static void drawQuad(final int width, final int height) {
+	/**
+	 * Draws the texture stream on a quad.
+	 *
+	 * @param flip true if the texture is upside down, when the stream cannot flip the snapshots
+	 */
+	private static void drawQuad(final int width, final int height, final boolean flip) {
 		final float ratio = (float)width / height;
 
 		final float SIZE = 16.0f;
@@ -396,19 +485,22 @@ final class Gears {
 
 		glPushMatrix();
 
+		final float t0 = flip ? 1.0f : 0.0f;
+		final float t1 = 1.0f - t0;
+
 		glTranslatef(-quadW * 0.5f, -quadH * 0.5f, -4.0f);
 		glBegin(GL_QUADS);
 		{
-			glTexCoord2f(0.0f, 1.0f);
+			glTexCoord2f(0.0f, t0);
 			glVertex2f(0.0f, 0.0f);
 
-			glTexCoord2f(1.0f, 1.0f);
+			glTexCoord2f(1.0f, t0);
 			glVertex2f(quadW, 0.0f);
 
-			glTexCoord2f(1.0f, 0.0f);
+			glTexCoord2f(1.0f, t1);
 			glVertex2f(quadW, quadH);
 
-			glTexCoord2f(0.0f, 0.0f);
+			glTexCoord2f(0.0f, t1);
 			glVertex2f(0.0f, quadH);
 		}
 		glEnd();
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import org.lwjgl.util.stream.RenderStream.AdaptiveBuffering;
+
+/**
+ * Decides when an adaptive stream should add or remove buffers.
+ * <p/>
+ * It is fed the frame interval, the time the stream waited on buffer mappings and the handler turnaround, and makes a
+ * decision once every {@link #WINDOW} frames. Waiting on mappings means the transfers have not completed by the time
+ * we need them, so we add a buffer. If there were no waits for a while, we try removing one. A removal that has to be
+ * undone right away doubles the time we wait before trying again.
+ * <p/>
+ * When the handler takes longer than a frame to process a buffer, it sets the frame rate and the stream always has
+ * plenty of time to complete its transfers. We don't make decisions in that case, the waits we'd measure are not
+ * representative.
+ * <p/>
+ * The LATENCY target may shrink the ring to a single buffer, but the stream decides how few buffers it can work with.
+ * A stream that does not block on the handler needs a second buffer, a single one would drop most frames.
+ */
+final class BufferingController {
+
+	private static final int WINDOW = 30; // frames
+
+	private static final int MAX_SHRINK_DELAY = 64; // windows
+
+	private final AdaptiveBuffering target;
+
+	private final int minTransfers;
+	private final int maxTransfers;
+
+	private long lastFrameTime;
+
+	private int  frames;
+	private long intervals;
+	private long mapWaits;
+
+	private int  turnarounds;
+	private long turnaroundTime;
+
+	private int     quietWindows;
+	private int     shrinkDelay;
+	private boolean probing;
+
+	BufferingController(final AdaptiveBuffering target, final int maxTransfers) {
+		this.target = target;
+
+		this.minTransfers = target == AdaptiveBuffering.LATENCY ? 1 : 2;
+		this.maxTransfers = maxTransfers;
+
+		this.shrinkDelay = target == AdaptiveBuffering.LATENCY ? 2 : 16;
+	}
+
+	AdaptiveBuffering getTarget() {
+		return target;
+	}
+
+	/** Discards the current measurements, e.g. after a resize. */
+	void reset() {
+		lastFrameTime = 0L;
+
+		frames = 0;
+		intervals = 0L;
+		mapWaits = 0L;
+
+		turnarounds = 0;
+		turnaroundTime = 0L;
+
+		quietWindows = 0;
+		probing = false;
+	}
+
+	void turnaround(final long time) {
+		turnarounds++;
+		turnaroundTime += time;
+	}
+
+	/**
+	 * Records a frame that was sent to the handler.
+	 *
+	 * @param mapWait           the time spent waiting for the buffer to become available to the handler
+	 * @param transfersToBuffer the current number of buffers
+	 * @param streamMin         the minimum number of buffers the stream needs with its current settings
+	 *
+	 * @return 1 if a buffer should be added, -1 if a buffer should be removed, 0 otherwise
+	 */
+	int frame(final long mapWait, final int transfersToBuffer, final int streamMin) {
+		final int minTransfers = Math.max(this.minTransfers, streamMin);
+
+		// The stream settings may have changed since we shrunk the ring
+		if ( transfersToBuffer < minTransfers && transfersToBuffer < maxTransfers ) {
+			reset();
+			return 1;
+		}
+
+		final long time = System.nanoTime();
+		if ( lastFrameTime == 0L ) {
+			lastFrameTime = time;
+			return 0;
+		}
+
+		frames++;
+		intervals += time - lastFrameTime;
+		mapWaits += mapWait;
+
+		lastFrameTime = time;
+
+		if ( frames < WINDOW )
+			return 0;
+
+		final long interval = intervals / frames;
+		final long wait = mapWaits / frames;
+		final long turnaround = turnarounds == 0 ? 0L : turnaroundTime / turnarounds;
+
+		frames = 0;
+		intervals = 0L;
+		mapWaits = 0L;
+
+		turnarounds = 0;
+		turnaroundTime = 0L;
+
+		final boolean probe = probing;
+		probing = false;
+
+		// The handler is the bottleneck
+		if ( interval <= turnaround ) {
+			quietWindows = 0;
+			return 0;
+		}
+
+		final long growThreshold = target == AdaptiveBuffering.LATENCY ? interval / 20 : interval / 100;
+		if ( growThreshold < wait ) {
+			quietWindows = 0;
+
+			// The last removal was premature, back off
+			if ( probe )
+				shrinkDelay = Math.min(shrinkDelay * 2, MAX_SHRINK_DELAY);
+
+			return transfersToBuffer < maxTransfers ? 1 : 0;
+		}
+
+		if ( interval / 100 < wait ) {
+			quietWindows = 0;
+			return 0;
+		}
+
+		if ( ++quietWindows < shrinkDelay || transfersToBuffer <= minTransfers )
+			return 0;
+
+		quietWindows = 0;
+		probing = true;
+
+		return -1;
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+/**
+ * Tracks the damage declared by the application for a buffered stream.
+ * <p/>
+ * Every buffer must hold a complete frame when it is handed to the handler, so each buffer accumulates the damage of
+ * the frames that were captured to other buffers since it was last written. That is the region read back when the
+ * next frame is captured to it. Separately, every buffer records the damage since the previous frame sent to the
+ * handler, which includes the damage of frames that were dropped or overwritten in between.
+ */
+final class DamageTracker {
+
+	private final DirtyRegion[] stale;
+	private final DirtyRegion[] handed;
+
+	private final DirtyRegion current = new DirtyRegion();
+	private final DirtyRegion carry   = new DirtyRegion();
+	private final DirtyRegion read    = new DirtyRegion();
+
+	private boolean enabled;
+	private boolean flipped;
+
+	private int width;
+	private int height;
+
+	DamageTracker(final int capacity) {
+		stale = new DirtyRegion[capacity];
+		handed = new DirtyRegion[capacity];
+		for ( int i = 0; i < capacity; i++ ) {
+			stale[i] = new DirtyRegion();
+			handed[i] = new DirtyRegion();
+		}
+	}
+
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	void setEnabled(final boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Sets whether the buffers hold the frames flipped vertically. The damage added after this call is flipped to buffer
+	 * coordinates. Must be followed by a reset.
+	 */
+	void setFlipped(final boolean flipped) {
+		this.flipped = flipped;
+	}
+
+	/** Invalidates every buffer. */
+	void reset(final int width, final int height) {
+		this.width = width;
+		this.height = height;
+
+		for ( int i = 0; i < stale.length; i++ ) {
+			stale[i].setFull(width, height);
+			handed[i].setFull(width, height);
+		}
+
+		current.clear();
+		// The first frame sent to the handler must be complete
+		carry.setFull(width, height);
+	}
+
+	/** Invalidates the buffer at the specified index, its contents are undefined. */
+	void invalidate(final int index) {
+		stale[index].setFull(width, height);
+	}
+
+	/** Adds damage to the frame being rendered, in framebuffer coordinates. */
+	void add(final int x, final int y, final int w, final int h) {
+		if ( enabled )
+			current.add(x, flipped ? height - y - h : y, w, h, width, height);
+	}
+
+	private void endFrame() {
+		if ( !enabled )
+			current.setFull(width, height);
+
+		for ( int i = 0; i < stale.length; i++ )
+			stale[i].add(current);
+	}
+
+	/** The current frame was not captured, its damage is merged into the next one. */
+	void drop() {
+		endFrame();
+
+		carry.add(current);
+		current.clear();
+	}
+
+	/**
+	 * The current frame is captured to the buffer at the specified index.
+	 *
+	 * @param overwrite true if the buffer holds a frame that has not been sent to the handler yet
+	 *
+	 * @return the region that must be read back
+	 */
+	DirtyRegion capture(final int index, final boolean overwrite) {
+		endFrame();
+
+		read.set(stale[index]);
+		stale[index].clear();
+
+		if ( !overwrite )
+			handed[index].clear();
+		handed[index].add(carry);
+		handed[index].add(current);
+
+		carry.clear();
+		current.clear();
+
+		return read;
+	}
+
+	/** Returns the region read back by the last capture. */
+	DirtyRegion getReadRegion() {
+		return read;
+	}
+
+	/** The buffer at index <code>src</code> has been copied to the buffer at index <code>trg</code>. */
+	void copy(final int src, final int trg) {
+		stale[trg].set(stale[src]);
+		handed[trg].set(handed[src]);
+	}
+
+	/**
+	 * Prepares the buffer at the specified index for a frame the handler writes to. The region starts empty, the handler
+	 * adds what it writes. It starts full if <code>full</code> is true.
+	 */
+	DirtyRegion prepare(final int index, final boolean full) {
+		final DirtyRegion region = handed[index];
+
+		if ( full )
+			region.setFull(width, height);
+		else
+			region.clear();
+
+		return region;
+	}
+
+	/** Returns the damage of the frame in the buffer at the specified index, since the previous frame sent to the handler. */
+	DirtyRegion getDamage(final int index) {
+		return handed[index];
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+/**
+ * A set of rectangles in buffer coordinates. Rows are in buffer order, see {@link StreamFrame#getOrientation()}: row 0
+ * is the bottom row of the framebuffer by default, the same orientation as glReadPixels and glScissor, and the top row
+ * with {@link StreamOrientation#TOP_DOWN}. Rectangles never overlap. Their number is capped, a region that would
+ * exceed the cap collapses to its bounding box.
+ */
+public final class DirtyRegion {
+
+	/** The maximum number of rectangles in a region. */
+	public static final int MAX_RECTS = 16;
+
+	private static final int X = 0;
+	private static final int Y = 1;
+	private static final int W = 2;
+	private static final int H = 3;
+
+	private final int[] rects = new int[MAX_RECTS * 4];
+	private       int   count;
+
+	DirtyRegion() {
+	}
+
+	public int getRectCount() {
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	public int getX(final int rect) {
+		return get(rect, X);
+	}
+
+	public int getY(final int rect) {
+		return get(rect, Y);
+	}
+
+	public int getWidth(final int rect) {
+		return get(rect, W);
+	}
+
+	public int getHeight(final int rect) {
+		return get(rect, H);
+	}
+
+	private int get(final int rect, final int field) {
+		if ( rect < 0 || count <= rect )
+			throw new IndexOutOfBoundsException(Integer.toString(rect));
+
+		return rects[rect * 4 + field];
+	}
+
+	/** Returns true if the region is a single rectangle that covers the specified dimensions. */
+	public boolean isFull(final int width, final int height) {
+		return count == 1 && rects[X] == 0 && rects[Y] == 0 && rects[W] == width && rects[H] == height;
+	}
+
+	void clear() {
+		count = 0;
+	}
+
+	void setFull(final int width, final int height) {
+		count = 0;
+		if ( width != 0 && height != 0 )
+			append(0, 0, width, height);
+	}
+
+	void set(final DirtyRegion region) {
+		System.arraycopy(region.rects, 0, rects, 0, region.count * 4);
+		count = region.count;
+	}
+
+	void add(final DirtyRegion region) {
+		for ( int i = 0; i < region.count; i++ ) {
+			final int r = i * 4;
+			add(region.rects[r + X], region.rects[r + Y], region.rects[r + W], region.rects[r + H]);
+		}
+	}
+
+	/** Adds the specified rectangle, clipped to the specified dimensions. */
+	void add(int x, int y, int w, int h, final int width, final int height) {
+		if ( x < 0 ) {
+			w += x;
+			x = 0;
+		}
+		if ( y < 0 ) {
+			h += y;
+			y = 0;
+		}
+
+		add(x, y, Math.min(w, width - x), Math.min(h, height - y));
+	}
+
+	void add(int x, int y, int w, int h) {
+		if ( w <= 0 || h <= 0 )
+			return;
+
+		// Absorb every rectangle that overlaps the new one, until none does.
+		for ( int i = 0; i < count; ) {
+			final int r = i * 4;
+
+			final int rx = rects[r + X];
+			final int ry = rects[r + Y];
+			final int rw = rects[r + W];
+			final int rh = rects[r + H];
+
+			if ( x + w <= rx || rx + rw <= x || y + h <= ry || ry + rh <= y ) {
+				i++;
+				continue;
+			}
+
+			// Already covered
+			if ( rx <= x && ry <= y && x + w <= rx + rw && y + h <= ry + rh )
+				return;
+
+			final int x1 = Math.min(x, rx);
+			final int y1 = Math.min(y, ry);
+			w = Math.max(x + w, rx + rw) - x1;
+			h = Math.max(y + h, ry + rh) - y1;
+			x = x1;
+			y = y1;
+
+			remove(i);
+			i = 0; // The union may overlap rectangles we have already checked
+		}
+
+		if ( count == MAX_RECTS ) {
+			// Collapse to the bounding box
+			for ( int i = 0; i < count; i++ ) {
+				final int r = i * 4;
+
+				final int x1 = Math.min(x, rects[r + X]);
+				final int y1 = Math.min(y, rects[r + Y]);
+				w = Math.max(x + w, rects[r + X] + rects[r + W]) - x1;
+				h = Math.max(y + h, rects[r + Y] + rects[r + H]) - y1;
+				x = x1;
+				y = y1;
+			}
+			count = 0;
+		}
+
+		append(x, y, w, h);
+	}
+
+	private void append(final int x, final int y, final int w, final int h) {
+		final int r = count++ * 4;
+
+		rects[r + X] = x;
+		rects[r + Y] = y;
+		rects[r + W] = w;
+		rects[r + H] = h;
+	}
+
+	private void remove(final int rect) {
+		final int last = --count;
+		if ( rect != last )
+			System.arraycopy(rects, last * 4, rects, rect * 4, 4);
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL20.*;
+
+/**
+ * Fast approximate anti-aliasing. Renders a texture to the bound framebuffer and blends the pixels along the edges it
+ * detects in the luma of the image. Much cheaper than MSAA in memory and bandwidth, at the cost of some blurring of
+ * texture detail. The source texture must use linear filtering.
+ */
+final class FXAAPass {
+
+	private static final String FRAGMENT_SHADER =
+		"#version 110\n" +
+		"uniform sampler2D source;\n" +
+		"uniform vec2 texelSize;\n" +
+		"uniform vec4 bounds; // The centers of the first and last texels of the frame\n" +
+		"uniform vec2 orientation; // Maps the output row to the source row: (0, 1), or (height, -1) to flip the frame\n" +
+		"\n" +
+		"const float REDUCE_MIN = 1.0 / 128.0;\n" +
+		"const float REDUCE_MUL = 1.0 / 8.0;\n" +
+		"const float SPAN_MAX = 8.0;\n" +
+		"const vec3 LUMA = vec3(0.299, 0.587, 0.114);\n" +
+		"\n" +
+		"vec3 fetch(vec2 uv) {\n" +
+		"\treturn texture2D(source, clamp(uv, bounds.xy, bounds.zw)).rgb;\n" +
+		"}\n" +
+		"\n" +
+		"void main(void) {\n" +
+		"\tvec2 uv = vec2(gl_FragCoord.x, orientation.x + orientation.y * gl_FragCoord.y) * texelSize;\n" +
+		"\tvec4 center = texture2D(source, uv);\n" +
+		"\n" +
+		"\tfloat lumaNW = dot(fetch(uv + vec2(-1.0, -1.0) * texelSize), LUMA);\n" +
+		"\tfloat lumaNE = dot(fetch(uv + vec2(1.0, -1.0) * texelSize), LUMA);\n" +
+		"\tfloat lumaSW = dot(fetch(uv + vec2(-1.0, 1.0) * texelSize), LUMA);\n" +
+		"\tfloat lumaSE = dot(fetch(uv + vec2(1.0, 1.0) * texelSize), LUMA);\n" +
+		"\tfloat lumaM = dot(center.rgb, LUMA);\n" +
+		"\n" +
+		"\tfloat lumaMin = min(lumaM, min(min(lumaNW, lumaNE), min(lumaSW, lumaSE)));\n" +
+		"\tfloat lumaMax = max(lumaM, max(max(lumaNW, lumaNE), max(lumaSW, lumaSE)));\n" +
+		"\n" +
+		"\tvec2 dir = vec2(-((lumaNW + lumaNE) - (lumaSW + lumaSE)), (lumaNW + lumaSW) - (lumaNE + lumaSE));\n" +
+		"\tfloat dirReduce = max((lumaNW + lumaNE + lumaSW + lumaSE) * (0.25 * REDUCE_MUL), REDUCE_MIN);\n" +
+		"\tfloat rcpDirMin = 1.0 / (min(abs(dir.x), abs(dir.y)) + dirReduce);\n" +
+		"\tdir = clamp(dir * rcpDirMin, -SPAN_MAX, SPAN_MAX) * texelSize;\n" +
+		"\n" +
+		"\tvec3 rgbA = 0.5 * (fetch(uv + dir * (1.0 / 3.0 - 0.5)) + fetch(uv + dir * (2.0 / 3.0 - 0.5)));\n" +
+		"\tvec3 rgbB = rgbA * 0.5 + 0.25 * (fetch(uv - dir * 0.5) + fetch(uv + dir * 0.5));\n" +
+		"\tfloat lumaB = dot(rgbB, LUMA);\n" +
+		"\n" +
+		"\tgl_FragColor = vec4(lumaB < lumaMin || lumaMax < lumaB ? rgbA : rgbB, center.a);\n" +
+		"}";
+
+	private final ShaderPass pass;
+	private final int        texelSizeLocation;
+	private final int        boundsLocation;
+	private final int        orientationLocation;
+
+	FXAAPass() {
+		pass = new ShaderPass(FRAGMENT_SHADER);
+		texelSizeLocation = pass.getUniformLocation("texelSize");
+		boundsLocation = pass.getUniformLocation("bounds");
+		orientationLocation = pass.getUniformLocation("orientation");
+
+		pass.begin();
+		glUniform1i(pass.getUniformLocation("source"), 0);
+		pass.end();
+	}
+
+	/**
+	 * Renders a frame of the specified dimensions from the source texture to the bound draw framebuffer.
+	 *
+	 * @param source         the texture that holds the frame
+	 * @param capacityWidth  the width of the source texture
+	 * @param capacityHeight the height of the source texture
+	 * @param region         the region to render, or null to render the whole frame
+	 * @param flip           if true, the frame is flipped vertically. The region is in the flipped frame.
+	 */
+	void apply(final int source, final int capacityWidth, final int capacityHeight, final int width, final int height, final DirtyRegion region, final boolean flip) {
+		pass.begin();
+		glViewport(0, 0, width, height);
+
+		glActiveTexture(GL_TEXTURE0);
+		glBindTexture(GL_TEXTURE_2D, source);
+
+		final float texelW = 1.0f / capacityWidth;
+		final float texelH = 1.0f / capacityHeight;
+		glUniform2f(texelSizeLocation, texelW, texelH);
+		glUniform4f(boundsLocation, 0.5f * texelW, 0.5f * texelH, (width - 0.5f) * texelW, (height - 0.5f) * texelH);
+		if ( flip )
+			glUniform2f(orientationLocation, height, -1.0f);
+		else
+			glUniform2f(orientationLocation, 0.0f, 1.0f);
+
+		if ( region == null )
+			pass.draw();
+		else {
+			glEnable(GL_SCISSOR_TEST);
+			for ( int i = 0; i < region.getRectCount(); i++ ) {
+				glScissor(region.getX(i), region.getY(i), region.getWidth(i), region.getHeight(i));
+				pass.draw();
+			}
+		}
+
+		pass.end();
+	}
+
+	void destroy() {
+		pass.destroy();
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+/**
+ * The colors and depth values of a region around a picked location. Coordinates are in framebuffer pixels, with the
+ * origin at the bottom-left corner. The region is clipped to the framebuffer, it is empty if the location was outside.
+ * <p/>
+ * With color-ID rendering, the ID of the object at a pixel is encoded in the color returned by {@link #getColor}.
+ */
+public final class PickResult {
+
+	private final int x;
+	private final int y;
+	private final int radius;
+
+	private final int regionX;
+	private final int regionY;
+	private final int width;
+	private final int height;
+
+	private final int[]   colors;
+	private final float[] depths;
+
+	PickResult(final int x, final int y, final int radius, final int regionX, final int regionY, final int width, final int height) {
+		this.x = x;
+		this.y = y;
+		this.radius = radius;
+
+		this.regionX = regionX;
+		this.regionY = regionY;
+		this.width = width;
+		this.height = height;
+
+		this.colors = new int[width * height];
+		this.depths = new float[width * height];
+	}
+
+	int[] getColors() {
+		return colors;
+	}
+
+	float[] getDepths() {
+		return depths;
+	}
+
+	/** Returns the x coordinate of the picked location. */
+	public int getX() {
+		return x;
+	}
+
+	/** Returns the y coordinate of the picked location. */
+	public int getY() {
+		return y;
+	}
+
+	public int getRadius() {
+		return radius;
+	}
+
+	public int getRegionX() {
+		return regionX;
+	}
+
+	public int getRegionY() {
+		return regionY;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public boolean isEmpty() {
+		return width == 0 || height == 0;
+	}
+
+	/** Returns true if the specified pixel is in the region. */
+	public boolean contains(final int x, final int y) {
+		return regionX <= x && x < regionX + width && regionY <= y && y < regionY + height;
+	}
+
+	/** Returns the color of the specified pixel, as 0xAARRGGBB. */
+	public int getColor(final int x, final int y) {
+		return colors[getIndex(x, y)];
+	}
+
+	/** Returns the window-space depth of the specified pixel, in the [0, 1] range. */
+	public float getDepth(final int x, final int y) {
+		return depths[getIndex(x, y)];
+	}
+
+	private int getIndex(final int x, final int y) {
+		if ( !contains(x, y) )
+			throw new IllegalArgumentException("Pixel outside the picked region: " + x + ", " + y);
+
+		return (y - regionY) * width + (x - regionX);
+	}
+
+	public String toString() {
+		return "PickResult[" + x + ", " + y + ", radius " + radius + ": " + width + " x " + height + " at " + regionX + ", " + regionY + "]";
+	}
+
+}
\ No newline at end of file
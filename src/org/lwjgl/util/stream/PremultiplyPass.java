@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL14.*;
+
+/**
+ * Multiplies the color channels of the bound draw framebuffer by its alpha channel, in place. The multiplication is done
+ * by the blending stage: the pass outputs zero and the blend factors select the destination color times the
+ * destination alpha. Works on renderbuffers as well as textures.
+ */
+final class PremultiplyPass {
+
+	private static final String FRAGMENT_SHADER =
+		"#version 110\n" +
+		"void main(void) {\n" +
+		"\tgl_FragColor = vec4(0.0);\n" +
+		"}";
+
+	private final ShaderPass pass;
+
+	PremultiplyPass() {
+		pass = new ShaderPass(FRAGMENT_SHADER);
+	}
+
+	/**
+	 * Premultiplies a frame of the specified dimensions.
+	 *
+	 * @param region the region to premultiply, or null to premultiply the whole frame
+	 */
+	void apply(final int width, final int height, final DirtyRegion region) {
+		pass.begin();
+		glViewport(0, 0, width, height);
+
+		glEnable(GL_BLEND);
+		glBlendFuncSeparate(GL_ZERO, GL_DST_ALPHA, GL_ZERO, GL_ONE);
+
+		if ( region == null )
+			pass.draw();
+		else {
+			glEnable(GL_SCISSOR_TEST);
+			for ( int i = 0; i < region.getRectCount(); i++ ) {
+				glScissor(region.getX(i), region.getY(i), region.getWidth(i), region.getHeight(i));
+				pass.draw();
+			}
+		}
+
+		pass.end();
+	}
+
+	void destroy() {
+		pass.destroy();
+	}
+
+}
\ No newline at end of file
@@ -34,12 +34,150 @@ package org.lwjgl.util.stream;
 /** @author Spasi */
 public interface RenderStream {
 
+	/** The maximum radius of the region read by {@link #requestPick}. */
+	int MAX_PICK_RADIUS = 16;
+
+	/** What {@link #swapBuffers} does when the buffer it needs is still being processed by the handler. */
+	enum BackPressure {
+		/** Wait for the handler to release the buffer. The handler sets the frame rate. */
+		BLOCK,
+		/** Skip the transfer of the current frame. */
+		DROP_NEWEST,
+		/** Transfer the current frame over the newest frame that has not been sent to the handler yet. */
+		LATEST_WINS
+	}
+
+	/** Adaptive buffering targets. */
+	enum AdaptiveBuffering {
+		/** The number of buffers is fixed. */
+		OFF,
+		/** Use as few buffers as possible without waiting on transfers. */
+		LATENCY,
+		/** Add buffers as soon as we wait on transfers, remove them only after a long period without waits. */
+		THROUGHPUT
+	}
+
+	/** Anti-aliasing applied to single-sampled frames before the read-back. */
+	enum PostAntialiasing {
+		OFF,
+		/** Fast approximate anti-aliasing, a shader pass that smooths the edges it detects in the frame. */
+		FXAA
+	}
+
 	StreamHandler getHandler();
 
 	void bind();
 
 	void swapBuffers();
 
+	/**
+	 * Adds an output that receives every frame scaled to the dimensions of the specified handler, with linear filtering.
+	 * The scaling happens on the GPU and the output has its own buffers, only the scaled frame is read back. Outputs
+	 * never block the stream, frames are dropped if the handler is still processing every buffer. Handlers that implement
+	 * {@link StreamFrameHandler} receive the frame index and metadata of the stream frame.
+	 *
+	 * @throws UnsupportedOperationException if the implementation does not support scaled outputs
+	 */
+	void addScaledOutput(StreamHandler handler);
+
+	/** Removes the output of the specified handler, if it has been added. Waits for the handler to release its buffers. */
+	void removeScaledOutput(StreamHandler handler);
+
+	/**
+	 * Requests the colors and depth values of the pixels around the specified location, in the frame passed to the next
+	 * {@link #swapBuffers()}. The region is read back asynchronously to small buffers, the handler is called from a
+	 * later swapBuffers when the transfer has completed, usually one or two frames later. The location is in framebuffer
+	 * coordinates, with the origin at the bottom-left corner.
+	 *
+	 * @param radius the number of pixels to read on each side of the location, up to {@link #MAX_PICK_RADIUS}
+	 *
+	 * @throws UnsupportedOperationException if the implementation does not support picking
+	 */
+	void requestPick(int x, int y, int radius, PickHandler handler);
+
+	BackPressure getBackPressure();
+
+	void setBackPressure(BackPressure backPressure);
+
+	/** Returns the number of frames that were not sent to the handler because of the back-pressure policy. May be called from any thread. */
+	long getDroppedFrames();
+
+	/** Returns the number of buffers the stream currently uses. */
+	int getTransfersToBuffer();
+
+	AdaptiveBuffering getAdaptiveBuffering();
+
+	/**
+	 * Sets the adaptive buffering target. When enabled, the stream adds or removes buffers in place, between frames,
+	 * depending on the time it waits on transfers and the time the handler takes to process each frame. No frames
+	 * are dropped when that happens. Implementations that cannot do this keep a fixed number of buffers and always
+	 * return OFF from {@link #getAdaptiveBuffering}.
+	 */
+	void setAdaptiveBuffering(AdaptiveBuffering adaptiveBuffering);
+
+	PostAntialiasing getPostAntialiasing();
+
+	/**
+	 * Sets the post-process anti-aliasing mode. It is a cheaper alternative to MSAA, the pass runs where the MSAA resolve
+	 * would and needs a single extra color buffer. It can be changed at any time, without recreating the stream. The
+	 * setting has no effect while the stream is multisampled. Implementations that do not support it always return OFF
+	 * from {@link #getPostAntialiasing}.
+	 */
+	void setPostAntialiasing(PostAntialiasing postAntialiasing);
+
+	StreamOrientation getOrientation();
+
+	/**
+	 * Sets the order of the rows in the frames sent to the handler. {@link StreamOrientation#TOP_DOWN} frames are flipped
+	 * by the blit or shader pass that copies them to the read-back target, which is then required even without MSAA. The
+	 * frames in flight keep the orientation they were captured with, see {@link StreamFrame#getOrientation()}. Damage is
+	 * still added in framebuffer coordinates. Implementations that cannot flip frames always return BOTTOM_UP from
+	 * {@link #getOrientation}.
+	 */
+	void setOrientation(StreamOrientation orientation);
+
+	Object getFrameMetadata();
+
+	/**
+	 * Sets an object that is attached to every frame captured from now on. Handlers that implement {@link StreamFrameHandler}
+	 * receive it with {@link StreamFrame#getMetadata()}.
+	 */
+	void setFrameMetadata(Object metadata);
+
+	boolean isDamageTracking();
+
+	/**
+	 * Enables or disables damage tracking. When enabled, only the regions passed to {@link #addDamage} are transferred for
+	 * each frame, a frame without damage is not transferred at all. Every buffer still holds a complete frame when it is
+	 * sent to the handler, {@link StreamFrame#getDirtyRegion()} returns the region that changed since the previous one.
+	 * When disabled, every frame is transferred in full.
+	 */
+	void setDamageTracking(boolean enabled);
+
+	/**
+	 * Marks a region of the frame being rendered as changed. The region is in framebuffer coordinates, with the origin
+	 * at the bottom-left corner, like glScissor. Ignored unless damage tracking is enabled.
+	 */
+	void addDamage(int x, int y, int width, int height);
+
+	long getResizeSettleTime();
+
+	/**
+	 * Sets the time, in milliseconds, the handler dimensions must be stable before the stream reallocates. Until then the
+	 * frames follow the handler dimensions within the current allocations, frames that would not fit are clamped to them
+	 * and the handler must scale those. Long drags reallocate earlier, with some room to grow. Frames never exceed the
+	 * handler dimensions. The default is 0, the stream resizes immediately.
+	 */
+	void setResizeSettleTime(long millis);
+
+	StreamStats getStats();
+
+	/**
+	 * Enables per-stage timing statistics, recorded to the specified instance, or disables them if <code>stats</code> is null.
+	 * Must be called on the thread that uses the stream.
+	 */
+	void setStats(StreamStats stats);
+
 	void destroy();
 
 }
\ No newline at end of file
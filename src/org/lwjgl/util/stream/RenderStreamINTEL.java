@@ -34,6 +34,7 @@ package org.lwjgl.util.stream;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.ContextCapabilities;
 import org.lwjgl.opengl.GLContext;
+import org.lwjgl.util.stream.StreamStats.Stage;
 import org.lwjgl.util.stream.StreamUtil.RenderStreamFactory;
 
 import java.nio.ByteBuffer;
@@ -102,30 +103,92 @@ final class RenderStreamINTEL extends StreamBuffered implements RenderStream {
 		return handler;
 	}
 
-	private void resize(final int width, final int height) {
+	public int getTransfersToBuffer() {
+		return transfersToBuffer;
+	}
+
+	public AdaptiveBuffering getAdaptiveBuffering() {
+		return AdaptiveBuffering.OFF;
+	}
+
+	public void setAdaptiveBuffering(final AdaptiveBuffering adaptiveBuffering) {
+		// Not supported, the resolve textures are fixed.
+	}
+
+	public void addScaledOutput(final StreamHandler handler) {
+		throw new UnsupportedOperationException("Scaled outputs are not supported by this implementation.");
+	}
+
+	public void removeScaledOutput(final StreamHandler handler) {
+		// Never added
+	}
+
+	public PostAntialiasing getPostAntialiasing() {
+		return PostAntialiasing.OFF;
+	}
+
+	public void setPostAntialiasing(final PostAntialiasing postAntialiasing) {
+		// Not supported, the frames are resolved to linear textures directly.
+	}
+
+	public void setOrientation(final StreamOrientation orientation) {
+		// Multisampled blits cannot flip, the frames are resolved to the mapped textures directly.
+		if ( orientation == this.orientation || 1 < samples )
+			return;
+
+		this.orientation = orientation;
+		damage.setFlipped(orientation == StreamOrientation.TOP_DOWN);
+
+		// Every texture holds frames in the previous orientation, blit the next frames in full
+		damage.reset(width, height);
+	}
+
+	public void requestPick(final int x, final int y, final int radius, final PickHandler handler) {
+		throw new UnsupportedOperationException("Picking is not supported by this implementation.");
+	}
+
+	protected void resize(final int width, final int height) {
 		if ( width < 0 || height < 0 )
 			throw new IllegalArgumentException("Invalid dimensions: " + width + " x " + height);
 
-		destroyObjects();
+		// Reuse the existing objects if the new dimensions fit. Only the viewport and the blit region change.
+		final boolean reuse = fitsCapacity(width, height);
+		if ( reuse )
+			releaseBuffers();
+		else
+			destroyObjects();
+
+		if ( stats != null )
+			stats.countResize();
 
 		this.width = width;
 		this.height = height;
 
-		this.stride = StreamUtil.getStride(width);
+		if ( !reuse ) {
+			setCapacity(width, height);
+			this.stride = StreamUtil.getStride(capacityWidth);
+		}
 
 		if ( width == 0 || height == 0 )
 			return;
 
+		damage.reset(width, height);
+
 		bufferIndex = synchronousFrames = transfersToBuffer - 1;
 
-		// Setup render FBO
+		if ( reuse ) {
+			glViewport(0, 0, width, height);
+			return;
+		}
+
+		// Setup render FBO, with storage for the capacity
 
 		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, renderFBO);
 
-		rgbaBuffer = StreamUtil.createRenderBuffer(fboUtil, width, height, samples, GL_RGBA8);
+		rgbaBuffer = StreamUtil.createRenderBuffer(fboUtil, capacityWidth, capacityHeight, samples, GL_RGBA8);
 		fboUtil.framebufferRenderbuffer(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER, rgbaBuffer);
 
-		depthBuffer = StreamUtil.createRenderBuffer(fboUtil, width, height, samples, GL_DEPTH24_STENCIL8);
+		depthBuffer = StreamUtil.createRenderBuffer(fboUtil, capacityWidth, capacityHeight, samples, GL_DEPTH24_STENCIL8);
 		fboUtil.framebufferRenderbuffer(GL_DRAW_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthBuffer);
 
 		glViewport(0, 0, width, height);
@@ -133,7 +196,7 @@ final class RenderStreamINTEL extends StreamBuffered implements RenderStream {
 		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
 
 		for ( int i = 0; i < resolveBuffers.length; i++ )
-			resolveBuffers[i] = genLayoutLinearTexture(width, height);
+			resolveBuffers[i] = genLayoutLinearTexture(capacityWidth, capacityHeight);
 
 		glBindTexture(GL_TEXTURE_2D, 0);
 	}
@@ -151,23 +214,37 @@ final class RenderStreamINTEL extends StreamBuffered implements RenderStream {
 	}
 
 	public void bind() {
-		if ( this.width != handler.getWidth() || this.height != handler.getHeight() )
-			resize(handler.getWidth(), handler.getHeight());
+		checkSize();
 
 		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, renderFBO);
 	}
 
 	private void prepareFramebuffer(final int trgTEX) {
-		// Back-pressure. Make sure we never buffer more than <transfersToBuffer> frames ahead.
-		if ( processingState.get(trgTEX) )
+		if ( ring.isBusy(trgTEX) )
 			waitForProcessingToComplete(trgTEX);
 
+		final DirtyRegion region = damage.getReadRegion();
+		if ( region.isEmpty() )
+			return;
+
 		fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, renderFBO);
 		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, resolveFBO);
 
-		// Blit current texture
+		// Blit current texture, only the regions that are out of date. The region is in texture coordinates.
 		fboUtil.framebufferTexture2D(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, resolveBuffers[trgTEX], 0);
-		fboUtil.blitFramebuffer(0, 0, width, height, 0, 0, width, height, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+		beginStage(trgTEX, Stage.READBACK);
+		final boolean flip = orientation == StreamOrientation.TOP_DOWN;
+		for ( int i = 0; i < region.getRectCount(); i++ ) {
+			final int x0 = region.getX(i);
+			final int y0 = region.getY(i);
+			final int x1 = x0 + region.getWidth(i);
+			final int y1 = y0 + region.getHeight(i);
+			if ( flip )
+				fboUtil.blitFramebuffer(x0, height - y1, x1, height - y0, x0, y1, x1, y0, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+			else
+				fboUtil.blitFramebuffer(x0, y0, x1, y1, x0, y0, x1, y1, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+		}
+		endStage(trgTEX, Stage.READBACK);
 		glFlush();
 
 		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
@@ -178,10 +255,27 @@ final class RenderStreamINTEL extends StreamBuffered implements RenderStream {
 		if ( width == 0 || height == 0 )
 			return;
 
+		final long frame = frameIndex++;
+
 		final int renderToTEX = (int)(bufferIndex % transfersToBuffer);
 		final int readFromTEX = (int)((bufferIndex + 1) % transfersToBuffer);
 
-		prepareFramebuffer(renderToTEX);
+		// Back-pressure. Make sure we never buffer more than <transfersToBuffer> frames ahead.
+		// The policy is not applied during the synchronous frames, we need every buffer filled.
+		final int transferToTEX = synchronousFrames == 0 ? getTransferTarget(renderToTEX, (int)((bufferIndex - 1) % transfersToBuffer)) : renderToTEX;
+		if ( transferToTEX == -1 ) {
+			damage.drop();
+			return;
+		}
+
+		damage.capture(transferToTEX, transferToTEX != renderToTEX);
+
+		prepareFramebuffer(transferToTEX);
+		capture(transferToTEX, frame);
+
+		// We've overwritten the previous frame. The handler still has the buffer we need, try again next frame.
+		if ( transferToTEX != renderToTEX )
+			return;
 
 		// This will be non-zero for the first (transfersToBuffer - 1) frames
 		// after start-up or a resize.
@@ -189,24 +283,23 @@ final class RenderStreamINTEL extends StreamBuffered implements RenderStream {
 			// The readFromTEX is currently empty. Wait for renderToTEX's ReadPixels to complete and copy the current frame to readFromTEX.
 			// We do this to avoid sending an empty buffer for processing, which would cause a visible flicker on resize.
 			copyFrames(renderToTEX, readFromTEX);
+			copyCapture(renderToTEX, readFromTEX);
 			synchronousFrames--;
+
+			if ( stats != null )
+				stats.countSynchronousFrame();
 		}
 
 		// Time to process the readFromTEX
 
-		pinBuffer(readFromTEX);
+		final long pinTime = stats == null ? 0L : System.nanoTime();
 
-		// Send the buffer for processing
+		pinBuffer(readFromTEX);
 
-		processingState.set(readFromTEX, true);
-		semaphores[readFromTEX].acquireUninterruptibly();
+		countFrame(readFromTEX, stats == null ? 0L : System.nanoTime() - pinTime);
 
-		handler.process(
-			width, height,
-			pinnedBuffers[readFromTEX],
-			stride,
-			semaphores[readFromTEX]
-		);
+		// Send the buffer for processing
+		processBuffer(readFromTEX);
 
 		bufferIndex++;
 	}
@@ -247,14 +340,25 @@ final class RenderStreamINTEL extends StreamBuffered implements RenderStream {
 		glUnmapTexture2DINTEL(resolveBuffers[index], 0);
 	}
 
-	private void destroyObjects() {
-		for ( int i = 0; i < semaphores.length; i++ ) {
-			if ( processingState.get(i) )
+	/** Waits for the handler to release every buffer. */
+	private void releaseBuffers() {
+		for ( int i = 0; i < transfersToBuffer; i++ ) {
+			if ( ring.isBusy(i) )
 				waitForProcessingToComplete(i);
 		}
+	}
+
+	private void destroyObjects() {
+		releaseBuffers();
 
-		if ( rgbaBuffer != 0 ) fboUtil.deleteRenderbuffers(rgbaBuffer);
-		if ( depthBuffer != 0 ) fboUtil.deleteRenderbuffers(depthBuffer);
+		if ( rgbaBuffer != 0 ) {
+			StreamUtil.deleteRenderBuffer(fboUtil, rgbaBuffer);
+			rgbaBuffer = 0;
+		}
+		if ( depthBuffer != 0 ) {
+			StreamUtil.deleteRenderBuffer(fboUtil, depthBuffer);
+			depthBuffer = 0;
+		}
 
 		for ( int i = 0; i < resolveBuffers.length; i++ ) {
 			glDeleteTextures(resolveBuffers[i]);
@@ -264,6 +368,7 @@ final class RenderStreamINTEL extends StreamBuffered implements RenderStream {
 
 	public void destroy() {
 		destroyObjects();
+		destroyTimer();
 
 		if ( resolveFBO != 0 )
 			fboUtil.deleteFramebuffers(resolveFBO);
@@ -33,16 +33,24 @@ package org.lwjgl.util.stream;
 
 import org.lwjgl.opengl.ContextCapabilities;
 import org.lwjgl.opengl.GLContext;
+import org.lwjgl.util.stream.StreamStats.Stage;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL12.*;
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL21.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL45.*;
 
 /** Implements streaming PBO updates from a framebuffer object. */
 abstract class RenderStreamPBO extends StreamBufferedPBO implements RenderStream {
 
+	/** The maximum number of buffers with adaptive buffering. */
+	static final int MAX_TRANSFERS_TO_BUFFER = 4;
+
 	public static enum ReadbackType {
 		/** RenderBuffers on FBO, ReadPixels to readback. */
 		READ_PIXELS,
@@ -52,6 +60,21 @@ abstract class RenderStreamPBO extends StreamBufferedPBO implements RenderStream
 
 	private final ReadbackType readbackType;
 
+	/**
+	 * True if the resolve target is a texture, either for read-back or for the YUV conversion. Single-sampled render
+	 * targets are always textures, they may be sampled by the post-process anti-aliasing.
+	 */
+	private final boolean textureTargets;
+
+	/** True if rectangles can be read back. Otherwise damage tracking only saves the transfers of frames without damage. */
+	protected final boolean partialReadback;
+
+	/** True if frames can be flipped with a blit. */
+	private final boolean blitSupported;
+
+	/** True if the FXAA shader can be compiled. */
+	private final boolean fxaaSupported;
+
 	protected final StreamUtil.FBOUtil fboUtil;
 	private final   int                renderFBO;
 
@@ -60,201 +83,749 @@ abstract class RenderStreamPBO extends StreamBufferedPBO implements RenderStream
 	private int rgbaBuffer;
 	private int depthBuffer;
 
+	// The target of the MSAA resolve or of the post-process anti-aliasing
 	private int msaaResolveFBO;
 	private int msaaResolveBuffer;
 
+	private PostAntialiasing postAntialiasing = PostAntialiasing.OFF;
+	private FXAAPass         fxaaPass;
+
+	private PremultiplyPass premultiplyPass;
+
+	// Multisampled blits cannot flip, flipped MSAA frames are resolved here first
+	private int msaaFlipFBO;
+	private int msaaFlipBuffer;
+
+	private YUVConverter yuvConverter;
+
 	protected int synchronousFrames;
 
-	protected RenderStreamPBO(final StreamHandler handler, final int samples, final int transfersToBuffer, final ReadbackType readbackType) {
-		super(handler, transfersToBuffer);
+	/**
+	 * The order in which the buffers are used. The buffer at ring position <code>p</code> is
+	 * <code>order[p % transfersToBuffer]</code>. This is the identity mapping, unless adaptive
+	 * buffering has added or removed buffers.
+	 */
+	private final int[] order;
+	private final int[] newOrder;
+
+	/** Buffers that have been removed from the ring but are still being processed by the handler. */
+	private final int[] retired;
+	private       int   retiredCount;
+
+	/** Set when a buffer is added. The next frame has nothing to send to the handler. */
+	private boolean skipHandOff;
+
+	/** Set when a buffer must be removed but the transfer to the oldest one had not completed. Retried every frame. */
+	private boolean removalPending;
+
+	/**
+	 * Set when the oldest transfer had not completed and nothing was sent to the handler. The newest buffer then holds
+	 * a frame that has not been sent yet, it is overwritten by the next frame.
+	 */
+	private boolean stalled;
+	private long    stallTime;
+
+	private BufferingController bufferingController;
+
+	private final List<RenderStreamScaledOutput> scaledOutputs = new ArrayList<RenderStreamScaledOutput>();
+
+	private RenderStreamPicker picker;
+
+	protected RenderStreamPBO(final StreamHandler handler, final int samples, final int transfersToBuffer, final ReadbackType readbackType, final StreamFormat format) {
+		super(handler, transfersToBuffer, Math.max(transfersToBuffer, MAX_TRANSFERS_TO_BUFFER), format);
+
+		order = new int[pbos.length];
+		newOrder = new int[pbos.length];
+		retired = new int[pbos.length];
 
 		this.readbackType = readbackType;
+		this.textureTargets = readbackType == ReadbackType.GET_TEX_IMAGE || format.isYUV();
 
 		final ContextCapabilities caps = GLContext.getCapabilities();
 
 		fboUtil = StreamUtil.getFBOUtil(caps);
 		renderFBO = fboUtil.genFramebuffers();
 
+		partialReadback = readbackType == ReadbackType.READ_PIXELS || caps.OpenGL45 || caps.GL_ARB_get_texture_sub_image;
+		blitSupported = StreamUtil.isBlitSupported(caps);
+		fxaaSupported = caps.OpenGL20;
+
 		this.samples = StreamUtil.checkSamples(samples, caps);
+
+		if ( format.isPremultiplied() )
+			premultiplyPass = new PremultiplyPass();
 	}
 
 	public StreamHandler getHandler() {
 		return handler;
 	}
 
-	private void resize(final int width, final int height) {
+	public int getTransfersToBuffer() {
+		return transfersToBuffer;
+	}
+
+	public AdaptiveBuffering getAdaptiveBuffering() {
+		return bufferingController == null ? AdaptiveBuffering.OFF : bufferingController.getTarget();
+	}
+
+	public void setAdaptiveBuffering(final AdaptiveBuffering adaptiveBuffering) {
+		if ( adaptiveBuffering == getAdaptiveBuffering() )
+			return;
+
+		bufferingController = adaptiveBuffering == AdaptiveBuffering.OFF
+		                      ? null
+		                      : new BufferingController(adaptiveBuffering, pbos.length);
+		removalPending = false;
+	}
+
+	public void addScaledOutput(final StreamHandler handler) {
+		if ( handler == null )
+			throw new NullPointerException();
+
+		if ( getScaledOutput(handler) != -1 )
+			throw new IllegalArgumentException("The handler is already attached to this stream.");
+
+		// The scaled outputs are not converted, they fall back to BGRA8 with the YUV formats.
+		scaledOutputs.add(new RenderStreamScaledOutput(handler, Math.max(transfersToBuffer, 2), format.isYUV() ? StreamFormat.BGRA8 : format, fboUtil));
+	}
+
+	public void removeScaledOutput(final StreamHandler handler) {
+		final int index = getScaledOutput(handler);
+		if ( index != -1 )
+			scaledOutputs.remove(index).destroy();
+	}
+
+	private int getScaledOutput(final StreamHandler handler) {
+		for ( int i = 0; i < scaledOutputs.size(); i++ ) {
+			if ( scaledOutputs.get(i).getHandler() == handler )
+				return i;
+		}
+
+		return -1;
+	}
+
+	public PostAntialiasing getPostAntialiasing() {
+		return postAntialiasing;
+	}
+
+	public void setPostAntialiasing(final PostAntialiasing postAntialiasing) {
+		// Without GLSL the mode is ignored, getPostAntialiasing keeps returning OFF
+		if ( postAntialiasing == this.postAntialiasing || (postAntialiasing == PostAntialiasing.FXAA && !fxaaSupported) )
+			return;
+
+		if ( postAntialiasing == PostAntialiasing.FXAA && fxaaPass == null )
+			fxaaPass = new FXAAPass();
+
+		this.postAntialiasing = postAntialiasing;
+
+		// The MSAA resolve replaces the pass, nothing changes until the stream is single-sampled
+		if ( 1 < samples || rgbaBuffer == 0 )
+			return;
+
+		if ( !needsResolveFramebuffer() )
+			deleteResolveFramebuffer();
+		else if ( msaaResolveFBO == 0 )
+			createResolveFramebuffer();
+
+		// The read-back source has changed, transfer the next frames in full
+		damage.reset(width, height);
+	}
+
+	public void setOrientation(final StreamOrientation orientation) {
+		if ( orientation == this.orientation || !blitSupported )
+			return;
+
+		this.orientation = orientation;
+		damage.setFlipped(orientation == StreamOrientation.TOP_DOWN);
+
+		if ( rgbaBuffer == 0 )
+			return;
+
+		if ( !needsResolveFramebuffer() )
+			deleteResolveFramebuffer();
+		else if ( msaaResolveFBO == 0 )
+			createResolveFramebuffer();
+
+		if ( 1 < samples ) {
+			if ( orientation == StreamOrientation.TOP_DOWN )
+				createFlipFramebuffer();
+			else
+				deleteFlipFramebuffer();
+		}
+
+		// Every buffer holds frames in the previous orientation, transfer the next frames in full
+		damage.reset(width, height);
+	}
+
+	public void requestPick(final int x, final int y, final int radius, final PickHandler handler) {
+		if ( picker == null )
+			picker = new RenderStreamPicker(fboUtil);
+
+		picker.request(x, y, radius, handler);
+	}
+
+	protected void resize(final int width, final int height) {
 		if ( width < 0 || height < 0 )
 			throw new IllegalArgumentException("Invalid dimensions: " + width + " x " + height);
 
-		destroyObjects();
+		// Reuse the existing objects if the new dimensions fit. Only the viewport and the read region change.
+		final boolean reuse = fitsCapacity(width, height);
+		if ( reuse )
+			releaseBuffers();
+		else
+			destroyObjects();
+
+		if ( stats != null )
+			stats.countResize();
 
 		this.width = width;
 		this.height = height;
 
-		this.stride = StreamUtil.getStride(width);
+		if ( !reuse ) {
+			setCapacity(width, height);
+			this.stride = StreamUtil.getStride(capacityWidth, format);
+		}
 
 		if ( width == 0 || height == 0 )
 			return;
 
+		damage.reset(width, height);
+
 		bufferIndex = synchronousFrames = transfersToBuffer - 1;
 
-		// Setup render FBO
+		for ( int i = 0; i < transfersToBuffer; i++ )
+			order[i] = i;
+		skipHandOff = false;
+		removalPending = false;
+		stalled = false;
+
+		if ( bufferingController != null )
+			bufferingController.reset();
+
+		if ( reuse ) {
+			// Adaptive buffering may have moved the buffers to other slots
+			for ( int i = 0; i < pbos.length; i++ ) {
+				if ( i < transfersToBuffer ) {
+					if ( pbos[i] == 0 )
+						createBuffer(i);
+				} else if ( pbos[i] != 0 )
+					deleteBuffer(i);
+			}
+			glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+			glViewport(0, 0, width, height);
+			return;
+		}
+
+		// Setup render FBO, with storage for the capacity. Rendering and read-back are clipped to the current dimensions.
 
 		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, renderFBO);
 
-		if ( samples <= 1 && readbackType == ReadbackType.GET_TEX_IMAGE )
+		if ( samples <= 1 )
 			fboUtil.framebufferTexture2D(
 				GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D,
-				rgbaBuffer = StreamUtil.createRenderTexture(width, height), 0
+				rgbaBuffer = StreamUtil.createRenderTexture(capacityWidth, capacityHeight, GL_LINEAR), 0
 			);
 		else
 			fboUtil.framebufferRenderbuffer(
 				GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER,
-				rgbaBuffer = StreamUtil.createRenderBuffer(fboUtil, width, height, samples, GL_RGBA8)
+				rgbaBuffer = StreamUtil.createRenderBuffer(fboUtil, capacityWidth, capacityHeight, samples, GL_RGBA8)
 			);
 
 		fboUtil.framebufferRenderbuffer(
 			GL_DRAW_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER,
-			depthBuffer = StreamUtil.createRenderBuffer(fboUtil, width, height, samples, GL_DEPTH24_STENCIL8)
+			depthBuffer = StreamUtil.createRenderBuffer(fboUtil, capacityWidth, capacityHeight, samples, GL_DEPTH24_STENCIL8)
 		);
 
 		glViewport(0, 0, width, height);
 
 		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
 
-		if ( 1 < samples ) {
-			// Setup MSAA resolve FBO
+		if ( needsResolveFramebuffer() )
+			createResolveFramebuffer();
+		else if ( msaaResolveFBO != 0 )
+			deleteResolveFramebuffer();
 
-			if ( msaaResolveFBO == 0 ) msaaResolveFBO = fboUtil.genFramebuffers();
+		if ( 1 < samples && orientation == StreamOrientation.TOP_DOWN )
+			createFlipFramebuffer();
 
-			fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, msaaResolveFBO);
+		if ( format.isYUV() ) {
+			if ( yuvConverter == null )
+				yuvConverter = new YUVConverter(fboUtil, format);
+			yuvConverter.resize(stride, capacityHeight);
+		}
 
-			if ( readbackType == ReadbackType.READ_PIXELS )
-				fboUtil.framebufferRenderbuffer(
-					GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER,
-					msaaResolveBuffer = StreamUtil.createRenderBuffer(fboUtil, width, height, GL_RGBA8)
-				);
-			else
-				fboUtil.framebufferTexture2D(
-					GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D,
-					msaaResolveBuffer = StreamUtil.createRenderTexture(width, height), 0
-				);
+		// Setup read-back buffers
 
-			fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, 0);
-		} else if ( msaaResolveFBO != 0 ) {
-			if ( readbackType == ReadbackType.READ_PIXELS )
-				fboUtil.deleteRenderbuffers(msaaResolveBuffer);
-			else
-				glDeleteTextures(msaaResolveBuffer);
-			msaaResolveBuffer = 0;
+		resizeBuffers(format.getRows(capacityHeight), stride);
+	}
 
-			fboUtil.deleteFramebuffers(msaaResolveFBO);
-			msaaResolveFBO = 0;
-		}
+	/**
+	 * Returns true if the frames are read back from the resolve target: with MSAA, post-process anti-aliasing, a
+	 * premultiplied format, or flipped frames. The render framebuffer itself is never modified.
+	 */
+	private boolean needsResolveFramebuffer() {
+		return 1 < samples || postAntialiasing != PostAntialiasing.OFF || premultiplyPass != null || orientation == StreamOrientation.TOP_DOWN;
+	}
 
-		// Setup read-back buffers
+	private void createResolveFramebuffer() {
+		if ( msaaResolveFBO == 0 ) msaaResolveFBO = fboUtil.genFramebuffers();
+
+		fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, msaaResolveFBO);
+
+		if ( !textureTargets )
+			fboUtil.framebufferRenderbuffer(
+				GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER,
+				msaaResolveBuffer = StreamUtil.createRenderBuffer(fboUtil, capacityWidth, capacityHeight, GL_RGBA8)
+			);
+		else
+			fboUtil.framebufferTexture2D(
+				GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D,
+				msaaResolveBuffer = StreamUtil.createRenderTexture(capacityWidth, capacityHeight), 0
+			);
+
+		fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, 0);
+	}
+
+	private void deleteResolveFramebuffer() {
+		deleteResolveBuffer();
+
+		fboUtil.deleteFramebuffers(msaaResolveFBO);
+		msaaResolveFBO = 0;
+	}
+
+	private void deleteResolveBuffer() {
+		if ( msaaResolveBuffer == 0 )
+			return;
+
+		if ( !textureTargets )
+			StreamUtil.deleteRenderBuffer(fboUtil, msaaResolveBuffer);
+		else
+			StreamUtil.deleteRenderTexture(msaaResolveBuffer);
+		msaaResolveBuffer = 0;
+	}
+
+	private void createFlipFramebuffer() {
+		if ( msaaFlipFBO == 0 ) msaaFlipFBO = fboUtil.genFramebuffers();
+
+		fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, msaaFlipFBO);
+		fboUtil.framebufferRenderbuffer(
+			GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER,
+			msaaFlipBuffer = StreamUtil.createRenderBuffer(fboUtil, capacityWidth, capacityHeight, GL_RGBA8)
+		);
+		fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, 0);
+	}
+
+	private void deleteFlipFramebuffer() {
+		if ( msaaFlipBuffer != 0 ) {
+			StreamUtil.deleteRenderBuffer(fboUtil, msaaFlipBuffer);
+			msaaFlipBuffer = 0;
+		}
 
-		resizeBuffers(height, stride);
+		if ( msaaFlipFBO != 0 ) {
+			fboUtil.deleteFramebuffers(msaaFlipFBO);
+			msaaFlipFBO = 0;
+		}
 	}
 
+	/**
+	 * Creates the read-back buffers.
+	 *
+	 * @param height the number of stride-wide rows a buffer holds, this includes the chroma planes of YUV formats
+	 * @param stride the row stride, in bytes
+	 */
 	protected void resizeBuffers(final int height, final int stride) {
-		super.resizeBuffers(height, stride, GL_PIXEL_PACK_BUFFER, GL_STREAM_READ);
+		for ( int i = 0; i < transfersToBuffer; i++ )
+			createBuffer(i);
+
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+	}
+
+	/** Creates the read-back buffer at the specified index, using the current capacity. */
+	protected void createBuffer(final int index) {
+		createBuffer(index, format.getRows(capacityHeight) * stride, GL_PIXEL_PACK_BUFFER, GL_STREAM_READ);
+	}
+
+	/** Returns the size of the current frame in the read-back buffers, in bytes. */
+	protected int getFrameSize() {
+		return format.getRows(height) * stride;
 	}
 
 	public void bind() {
-		if ( this.width != handler.getWidth() || this.height != handler.getHeight() )
-			resize(handler.getWidth(), handler.getHeight());
+		checkSize();
 
 		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, renderFBO);
 	}
 
-	protected void prepareFramebuffer() {
-		if ( msaaResolveFBO == 0 )
+	protected void prepareFramebuffer(final int index) {
+		final DirtyRegion region = damage.getReadRegion();
+
+		if ( region.isEmpty() || (msaaResolveFBO == 0 && yuvConverter == null) ) {
 			fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
-		else {
-			// Resolve MSAA
+			return;
+		}
+
+		beginStage(index, Stage.RESOLVE);
+		final DirtyRegion passRegion = !partialReadback || region.isFull(width, height) ? null : region;
+		if ( samples <= 1 && postAntialiasing != PostAntialiasing.OFF ) {
+			// Post-process anti-aliasing, only what we're going to read back
+			fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, msaaResolveFBO);
+			fxaaPass.apply(rgbaBuffer, capacityWidth, capacityHeight, width, height, passRegion, orientation == StreamOrientation.TOP_DOWN);
+		} else if ( msaaResolveFBO != 0 ) {
+			// Resolve MSAA, or copy the single-sampled frame, only what we're going to read back. Flipped MSAA frames
+			// are resolved first and flipped with a second blit.
 			fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, renderFBO);
+			if ( msaaFlipFBO != 0 ) {
+				fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, msaaFlipFBO);
+				blit(passRegion, false);
+				fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, msaaFlipFBO);
+			}
 			fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, msaaResolveFBO);
-			fboUtil.blitFramebuffer(0, 0, width, height, 0, 0, width, height, GL_COLOR_BUFFER_BIT, GL_NEAREST);
-			fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+			blit(passRegion, true);
 			fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, 0);
 		}
+		if ( premultiplyPass != null )
+			premultiplyPass.apply(width, height, passRegion);
+		if ( yuvConverter != null ) // Convert the resolved frame, the conversion leaves the draw framebuffer unbound
+			yuvConverter.convert(msaaResolveFBO == 0 ? rgbaBuffer : msaaResolveBuffer, capacityWidth, capacityHeight, width, height, stride);
+		else
+			fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+		endStage(index, Stage.RESOLVE);
+	}
+
+	/**
+	 * Blits a region of the frame from the bound read framebuffer, which is in framebuffer orientation.
+	 *
+	 * @param region   the region in buffer coordinates, or null for the whole frame
+	 * @param toBuffer true if the bound draw framebuffer is in buffer orientation, false if it is in framebuffer orientation
+	 */
+	private void blit(final DirtyRegion region, final boolean toBuffer) {
+		if ( region == null )
+			blit(0, 0, width, height, toBuffer);
+		else {
+			for ( int i = 0; i < region.getRectCount(); i++ )
+				blit(region.getX(i), region.getY(i), region.getWidth(i), region.getHeight(i), toBuffer);
+		}
+	}
+
+	private void blit(final int x, final int y, final int w, final int h, final boolean toBuffer) {
+		final boolean flip = orientation == StreamOrientation.TOP_DOWN;
+
+		// The rectangle in framebuffer coordinates
+		final int fbY = flip ? height - y - h : y;
+
+		if ( flip && toBuffer )
+			fboUtil.blitFramebuffer(x, fbY, x + w, fbY + h, x, y + h, x + w, y, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+		else
+			fboUtil.blitFramebuffer(x, fbY, x + w, fbY + h, x, fbY, x + w, fbY + h, GL_COLOR_BUFFER_BIT, GL_NEAREST);
 	}
 
 	public void swapBuffers() {
 		if ( width == 0 || height == 0 )
 			return;
 
-		final int renderToPBO = (int)(bufferIndex % transfersToBuffer);
-		final int readFromPBO = (int)((bufferIndex + 1) % transfersToBuffer); // Read from the oldest one we have rendered
+		final long frame = frameIndex++;
+
+		// Picking reads from the render framebuffer, independently of the frame transfer below
+		if ( picker != null )
+			picker.update(renderFBO, 1 < samples, width, height, capacityWidth, capacityHeight);
+
+		if ( retiredCount != 0 )
+			deleteRetiredBuffers();
 
-		glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[renderToPBO]);
+		final int renderToPBO = getBuffer(bufferIndex);
+		final int readFromPBO = getBuffer(bufferIndex + 1); // Read from the oldest one we have rendered
 
 		// Back-pressure. Make sure we never buffer more than <transfersToBuffer> frames ahead.
-		if ( processingState.get(renderToPBO) )
-			waitForProcessingToComplete(renderToPBO);
+		// The policy is not applied during the synchronous frames, we need every buffer filled.
+		final int transferToPBO = synchronousFrames == 0 ? getTransferTarget(renderToPBO, getBuffer(bufferIndex - 1)) : renderToPBO;
+		if ( transferToPBO == -1 ) {
+			damage.drop();
+			return;
+		}
 
-		prepareFramebuffer();
-		readBack(renderToPBO);
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[transferToPBO]);
+
+		if ( ring.isBusy(transferToPBO) ) {
+			waitForProcessingToComplete(transferToPBO);
+			if ( bufferingController != null )
+				bufferingController.turnaround(ring.getTurnaround(transferToPBO));
+		}
+
+		damage.capture(transferToPBO, transferToPBO != renderToPBO || stalled);
+
+		prepareFramebuffer(transferToPBO);
+
+		beginStage(transferToPBO, Stage.READBACK);
+		readBack(transferToPBO);
+		endStage(transferToPBO, Stage.READBACK);
+		capture(transferToPBO, frame);
+		if ( !scaledOutputs.isEmpty() ) {
+			// Scale from the resolved frame, the MSAA resolve above is shared with the outputs. So is the flip.
+			final int srcFBO = msaaResolveFBO == 0 ? renderFBO : msaaResolveFBO;
+			for ( int i = 0; i < scaledOutputs.size(); i++ )
+				scaledOutputs.get(i).update(srcFBO, width, height, frame, getFrameMetadata(), orientation);
+			glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[transferToPBO]);
+		}
 		// The glFlush is required because it forces the GL to start the readback as soon as possible. Without
 		// flushing, it may delay the readback until the next action that depends on the PBO. This would effectively
 		// make double-buffering almost as slow as single-buffering and triple-buffering as slow as double-buffering.
 		glFlush();
 
+		if ( transferToPBO != renderToPBO ) {
+			// We've overwritten the previous frame. The handler still has the buffer we need, try again next frame.
+			glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+			return;
+		}
+
+		if ( skipHandOff ) {
+			// A buffer was just added, readFromPBO is the one the handler got last.
+			glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+			skipHandOff = false;
+			bufferIndex++;
+			return;
+		}
+
+		// Don't block on a transfer that has not completed yet, the next frame will try again. With a single
+		// buffer, the transfer is the one we just started and there's nothing else to send.
+		if ( synchronousFrames == 0 && 1 < transfersToBuffer && !isTransferComplete(readFromPBO) ) {
+			glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+			if ( !stalled ) {
+				stalled = true;
+				stallTime = System.nanoTime();
+			}
+			return;
+		}
+
 		// This will be non-zero for the first (transfersToBuffer - 1) frames
 		// after start-up or a resize.
 		if ( 0 < synchronousFrames ) {
 			// The readFromPBO is currently empty. Wait for renderToPBO's ReadPixels to complete and copy the current frame to readFromPBO.
 			// We do this to avoid sending an empty buffer for processing, which would cause a visible flicker on resize.
 			copyFrames(renderToPBO, readFromPBO);
+			copyCapture(renderToPBO, readFromPBO);
 			synchronousFrames--;
+
+			if ( stats != null )
+				stats.countSynchronousFrame();
 		}
 
 		// Time to process the readFromPBO
 
-		pinBuffer(readFromPBO);
+		long mapWait = handOff(readFromPBO);
+		if ( stalled ) {
+			// The frames spent waiting for the transfer count as waits for adaptive buffering
+			mapWait += System.nanoTime() - stallTime;
+			stalled = false;
+		}
+
+		bufferIndex++;
+
+		if ( bufferingController != null && synchronousFrames == 0 ) {
+			final int change = bufferingController.frame(mapWait, transfersToBuffer, getMinTransfers());
+			if ( 0 < change ) {
+				removalPending = false;
+				addBuffer();
+			} else if ( change < 0 || removalPending )
+				removeBuffer();
+		}
+	}
+
+	/** Returns the minimum number of buffers. Only BLOCK can work with a single buffer, the other policies would drop most frames. */
+	private int getMinTransfers() {
+		return backPressure == BackPressure.BLOCK ? 1 : 2;
+	}
+
+	/** Returns the buffer at the specified ring position. */
+	private int getBuffer(final long position) {
+		return order[(int)(position % transfersToBuffer)];
+	}
+
+	/**
+	 * Sends the buffer at the specified index for processing.
+	 *
+	 * @return the time spent waiting for the buffer to become available
+	 */
+	private long handOff(final int index) {
+		final boolean timed = bufferingController != null || stats != null;
+
+		final long pinTime = timed ? System.nanoTime() : 0L;
+
+		pinBuffer(index);
+
+		final long mapWait = timed ? System.nanoTime() - pinTime : 0L;
+
+		countFrame(index, mapWait);
 
 		// Send the buffer for processing
+		processBuffer(index);
 
-		processingState.set(readFromPBO, true);
-		semaphores[readFromPBO].acquireUninterruptibly();
+		return mapWait;
+	}
 
-		handler.process(
-			width, height,
-			pinnedBuffers[readFromPBO],
-			stride,
-			semaphores[readFromPBO]
-		);
+	/*
+	Adding and removing buffers happens after a frame has been sent to the handler. At that point
+	the buffer at bufferIndex is the one the handler just got and the following (transfersToBuffer - 1)
+	positions hold the pending transfers, oldest first.
+	*/
 
-		bufferIndex++;
+	private void addBuffer() {
+		int index = -1;
+		for ( int i = 0; i < pbos.length; i++ ) {
+			if ( pbos[i] == 0 ) {
+				index = i;
+				break;
+			}
+		}
+
+		// Every slot is in use, some are still retiring.
+		if ( index == -1 )
+			return;
+
+		createBuffer(index);
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+		damage.invalidate(index);
+
+		// The new buffer receives the next frame. It is followed by the buffer the handler just got,
+		// which will receive the frame after that, and then the pending transfers.
+		newOrder[0] = index;
+		for ( int i = 0; i < transfersToBuffer; i++ )
+			newOrder[i + 1] = getBuffer(bufferIndex + i);
+
+		setOrder(transfersToBuffer + 1);
+
+		// One more pending transfer is required, there's nothing new to send on the next frame.
+		skipHandOff = true;
+	}
+
+	private void removeBuffer() {
+		if ( transfersToBuffer <= getMinTransfers() ) {
+			removalPending = false;
+			return;
+		}
+
+		final int handedIndex = getBuffer(bufferIndex);
+		final int oldestIndex = getBuffer(bufferIndex + 1);
+
+		// Pinning the oldest buffer would block until its transfer completes. Keep the buffer until it has.
+		removalPending = !isTransferComplete(oldestIndex);
+		if ( removalPending )
+			return;
+
+		// One less pending transfer is required, send the oldest one now.
+		handOff(oldestIndex);
+
+		// The buffer sent above receives the next frame. It is followed by the remaining pending transfers.
+		for ( int i = 0; i < transfersToBuffer - 1; i++ )
+			newOrder[i] = getBuffer(bufferIndex + 1 + i);
+
+		setOrder(transfersToBuffer - 1);
+
+		// The handler may still be processing the buffer it got before, delete it when released.
+		retired[retiredCount++] = handedIndex;
+	}
+
+	private void setOrder(final int transfersToBuffer) {
+		System.arraycopy(newOrder, 0, order, 0, transfersToBuffer);
+
+		this.transfersToBuffer = transfersToBuffer;
+		this.bufferIndex = transfersToBuffer; // Position 0, without going negative on bufferIndex - 1
+	}
+
+	private void deleteRetiredBuffers() {
+		for ( int i = 0; i < retiredCount; ) {
+			final int index = retired[i];
+			if ( ring.isReleased(index) ) {
+				glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[index]);
+				waitForProcessingToComplete(index);
+				glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+				deleteBuffer(index);
+
+				retired[i] = retired[--retiredCount];
+			} else
+				i++;
+		}
 	}
 
 	protected void readBack(final int index) {
+		final DirtyRegion region = damage.getReadRegion();
+		if ( region.isEmpty() )
+			return;
+
+		if ( yuvConverter != null ) {
+			// The planes are converted as a whole, transfer all of them
+			fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, yuvConverter.getFramebuffer());
+			glReadPixels(0, 0, stride, format.getRows(height), format.getTransferFormat(), format.getTransferType(), getPackOffset(index));
+			fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, 0);
+			return;
+		}
+
 		// Stride in pixels
-		glPixelStorei(GL_PACK_ROW_LENGTH, stride >> 2);
+		glPixelStorei(GL_PACK_ROW_LENGTH, stride / format.getBytesPerPixel());
+
+		final long offset = getPackOffset(index);
 
 		// Asynchronously transfer current frame
+		if ( !partialReadback || region.isFull(width, height) )
+			readBack(offset, 0, 0, width, height);
+		else {
+			for ( int i = 0; i < region.getRectCount(); i++ )
+				readBack(offset, region.getX(i), region.getY(i), region.getWidth(i), region.getHeight(i));
+		}
+
+		// Restore pack state
+		glPixelStorei(GL_PACK_SKIP_PIXELS, 0);
+		glPixelStorei(GL_PACK_SKIP_ROWS, 0);
+		glPixelStorei(GL_PACK_ROW_LENGTH, 0);
+	}
+
+	/** Returns the offset of the frame at the specified index in the pack buffer it is bound to. */
+	protected long getPackOffset(final int index) {
+		return 0L;
+	}
+
+	/**
+	 * Transfers the specified rectangle to the same location in the frame that starts at <code>offset</code> in the bound
+	 * pack buffer. Without partial read-back, the whole render texture is transferred instead.
+	 */
+	protected void readBack(final long offset, final int x, final int y, final int w, final int h) {
+		glPixelStorei(GL_PACK_SKIP_PIXELS, x);
+		glPixelStorei(GL_PACK_SKIP_ROWS, y);
+
 		if ( readbackType == ReadbackType.READ_PIXELS ) {
 			fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, msaaResolveFBO == 0 ? renderFBO : msaaResolveFBO);
-			glReadPixels(0, 0, width, height, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, 0);
+			glReadPixels(x, y, w, h, format.getTransferFormat(), format.getTransferType(), offset);
 			fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, 0);
 		} else {
-			glBindTexture(GL_TEXTURE_2D, msaaResolveFBO == 0 ? rgbaBuffer : msaaResolveBuffer);
-			glGetTexImage(GL_TEXTURE_2D, 0, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, 0);
-			glBindTexture(GL_TEXTURE_2D, 0);
+			final int texID = msaaResolveFBO == 0 ? rgbaBuffer : msaaResolveBuffer;
+			if ( !partialReadback || (w == capacityWidth && h == capacityHeight) ) {
+				// Transfers the whole texture, which may be larger than the frame. The buffer is large enough.
+				glBindTexture(GL_TEXTURE_2D, texID);
+				glGetTexImage(GL_TEXTURE_2D, 0, format.getTransferFormat(), format.getTransferType(), offset);
+				glBindTexture(GL_TEXTURE_2D, 0);
+			} else
+				glGetTextureSubImage(texID, 0, x, y, 0, w, h, 1, format.getTransferFormat(), format.getTransferType(), height * stride, offset);
 		}
+	}
 
-		// Restore PACK_ROW_LENGTH
-		glPixelStorei(GL_PACK_ROW_LENGTH, 0);
+	/**
+	 * Returns true if the transfer to the buffer at the specified index has completed and pinning it will not block.
+	 * Implementations that cannot tell without blocking return true.
+	 */
+	protected boolean isTransferComplete(final int index) {
+		return true;
 	}
 
 	protected abstract void copyFrames(final int src, final int trg);
 
 	protected abstract void pinBuffer(final int index);
 
-	protected void destroyObjects() {
-		for ( int i = 0; i < semaphores.length; i++ ) {
-			if ( processingState.get(i) ) {
+	/** Waits for the handler to release every buffer. */
+	private void releaseBuffers() {
+		for ( int i = 0; i < pbos.length; i++ ) {
+			if ( ring.isBusy(i) ) {
 				glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[i]);
 				waitForProcessingToComplete(i);
 			}
@@ -262,28 +833,59 @@ abstract class RenderStreamPBO extends StreamBufferedPBO implements RenderStream
 
 		glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
 
+		retiredCount = 0;
+	}
+
+	protected void destroyObjects() {
+		releaseBuffers();
+
 		for ( int i = 0; i < pbos.length; i++ ) {
 			if ( pbos[i] != 0 )
-				glDeleteBuffers(pbos[i]);
+				deleteBuffer(i);
 		}
 
-		if ( msaaResolveBuffer != 0 ) {
-			if ( readbackType == ReadbackType.READ_PIXELS )
-				fboUtil.deleteRenderbuffers(msaaResolveBuffer);
-			else
-				glDeleteTextures(msaaResolveBuffer);
+		deleteResolveBuffer();
+		deleteFlipFramebuffer();
+		if ( depthBuffer != 0 ) {
+			StreamUtil.deleteRenderBuffer(fboUtil, depthBuffer);
+			depthBuffer = 0;
 		}
-		if ( depthBuffer != 0 ) fboUtil.deleteRenderbuffers(depthBuffer);
 		if ( rgbaBuffer != 0 ) {
-			if ( samples <= 1 && readbackType == ReadbackType.GET_TEX_IMAGE )
-				glDeleteTextures(rgbaBuffer);
+			if ( samples <= 1 )
+				StreamUtil.deleteRenderTexture(rgbaBuffer);
 			else
-				fboUtil.deleteRenderbuffers(rgbaBuffer);
+				StreamUtil.deleteRenderBuffer(fboUtil, rgbaBuffer);
+			rgbaBuffer = 0;
 		}
 	}
 
 	public void destroy() {
 		destroyObjects();
+		destroyTimer();
+
+		for ( int i = 0; i < scaledOutputs.size(); i++ )
+			scaledOutputs.get(i).destroy();
+		scaledOutputs.clear();
+
+		if ( picker != null ) {
+			picker.destroy();
+			picker = null;
+		}
+
+		if ( yuvConverter != null ) {
+			yuvConverter.destroy();
+			yuvConverter = null;
+		}
+
+		if ( fxaaPass != null ) {
+			fxaaPass.destroy();
+			fxaaPass = null;
+		}
+
+		if ( premultiplyPass != null ) {
+			premultiplyPass.destroy();
+			premultiplyPass = null;
+		}
 
 		if ( msaaResolveFBO != 0 )
 			fboUtil.deleteFramebuffers(msaaResolveFBO);
@@ -54,48 +54,71 @@ final class RenderStreamPBOAMD extends RenderStreamPBO {
 		}
 
 		public RenderStream create(final StreamHandler handler, final int samples, final int transfersToBuffer) {
-			return new RenderStreamPBOAMD(handler, samples, transfersToBuffer);
+			return create(handler, samples, transfersToBuffer, getFormat(handler));
+		}
+
+		public boolean isSupported(final ContextCapabilities caps, final StreamFormat format) {
+			return isSupported(caps) && format.isSupported(caps);
+		}
+
+		public RenderStream create(final StreamHandler handler, final int samples, final int transfersToBuffer, final StreamFormat format) {
+			return new RenderStreamPBOAMD(handler, samples, transfersToBuffer, format);
 		}
 	};
 
 	private final GLSync[] fences;
 
-	RenderStreamPBOAMD(final StreamHandler handler, final int samples, final int transfersToBuffer) {
-		super(handler, samples, transfersToBuffer, ReadbackType.READ_PIXELS);
+	RenderStreamPBOAMD(final StreamHandler handler, final int samples, final int transfersToBuffer, final StreamFormat format) {
+		super(handler, samples, transfersToBuffer, ReadbackType.READ_PIXELS, format);
 
-		fences = new GLSync[this.transfersToBuffer];
+		fences = new GLSync[pbos.length];
 	}
 
-	protected void resizeBuffers(final int height, final int stride) {
-		final int renderBytes = height * stride;
+	protected void createBuffer(final int index) {
+		final int renderBytes = format.getRows(capacityHeight) * stride;
 
-		for ( int i = 0; i < pbos.length; i++ ) {
-			pbos[i] = glGenBuffers();
+		pbos[index] = glGenBuffers();
 
-			glBindBuffer(GL_EXTERNAL_VIRTUAL_MEMORY_BUFFER_AMD, pbos[i]);
+		glBindBuffer(GL_EXTERNAL_VIRTUAL_MEMORY_BUFFER_AMD, pbos[index]);
 
-			// Pre-allocate page-aligned pinned buffers
-			final int PAGE_SIZE = PageSizeProvider.PAGE_SIZE;
-			final ByteBuffer buffer = BufferUtils.createByteBuffer(renderBytes + PAGE_SIZE - 1);
-			final int pageOffset = (int)(MemoryUtil.getAddress(buffer) % PAGE_SIZE);
-			if ( pageOffset != 0 )
-				buffer.position(PAGE_SIZE - pageOffset); // Aligns to page
-			buffer.limit(buffer.position() + renderBytes); // Caps remaining() to renderBytes
+		// Pre-allocate page-aligned pinned buffers
+		final int PAGE_SIZE = PageSizeProvider.PAGE_SIZE;
+		final ByteBuffer buffer = BufferUtils.createByteBuffer(renderBytes + PAGE_SIZE - 1);
+		final int pageOffset = (int)(MemoryUtil.getAddress(buffer) % PAGE_SIZE);
+		if ( pageOffset != 0 )
+			buffer.position(PAGE_SIZE - pageOffset); // Aligns to page
+		buffer.limit(buffer.position() + renderBytes); // Caps remaining() to renderBytes
 
-			pinnedBuffers[i] = buffer.slice().order(ByteOrder.nativeOrder());
-			glBufferData(GL_EXTERNAL_VIRTUAL_MEMORY_BUFFER_AMD, pinnedBuffers[i], GL_STREAM_READ);
-		}
+		pinnedBuffers[index] = buffer.slice().order(ByteOrder.nativeOrder());
+		glBufferData(GL_EXTERNAL_VIRTUAL_MEMORY_BUFFER_AMD, pinnedBuffers[index], GL_STREAM_READ);
 
 		glBindBuffer(GL_EXTERNAL_VIRTUAL_MEMORY_BUFFER_AMD, 0);
 	}
 
+	protected void deleteBuffer(final int index) {
+		if ( fences[index] != null )
+			StreamUtil.waitOnFence(fences, index);
+
+		super.deleteBuffer(index);
+	}
+
 	protected void readBack(final int index) {
+		// The previous transfer to this buffer may have been overwritten before we waited on it
+		if ( fences[index] != null ) {
+			glDeleteSync(fences[index]);
+			fences[index] = null;
+		}
+
 		super.readBack(index);
 
 		// Insert a fence after ReadPixels
 		fences[index] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
 	}
 
+	protected boolean isTransferComplete(final int index) {
+		return StreamUtil.pollFence(fences, index);
+	}
+
 	protected void pinBuffer(final int index) {
 		if ( fences[index] != null ) // Wait for ReadPixels on the PBO to complete
 			StreamUtil.waitOnFence(fences, index);
@@ -113,6 +136,10 @@ final class RenderStreamPBOAMD extends RenderStreamPBO {
 		srcBuffer.flip();
 	}
 
+	protected boolean isPersistentlyMapped() {
+		return true;
+	}
+
 	protected void postProcess(final int index) {
 	}
 
@@ -32,11 +32,14 @@
 package org.lwjgl.util.stream;
 
 import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GLSync;
 import org.lwjgl.util.stream.StreamUtil.RenderStreamFactory;
 
+import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL21.*;
 import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL32.*;
 
 /** Default StreamPBOReader implementation: Asynchronous ReadPixels to PBOs */
 final class RenderStreamPBOCopy extends RenderStreamPBO {
@@ -51,40 +54,80 @@ final class RenderStreamPBOCopy extends RenderStreamPBO {
 		}
 
 		public RenderStream create(final StreamHandler handler, final int samples, final int transfersToBuffer) {
-			return new RenderStreamPBOCopy(handler, samples, transfersToBuffer, ReadbackType.GET_TEX_IMAGE);
+			return create(handler, samples, transfersToBuffer, getFormat(handler));
+		}
+
+		public boolean isSupported(final ContextCapabilities caps, final StreamFormat format) {
+			return isSupported(caps) && format.isSupported(caps) && !format.isYUV(); // The row copies of the read-back do not cover the chroma planes
+		}
+
+		public RenderStream create(final StreamHandler handler, final int samples, final int transfersToBuffer, final StreamFormat format) {
+			return new RenderStreamPBOCopy(handler, samples, transfersToBuffer, ReadbackType.GET_TEX_IMAGE, format);
 		}
 	};
 
 	private int devicePBO;
 
-	RenderStreamPBOCopy(final StreamHandler handler, final int samples, final int transfersToBuffer, final ReadbackType readbackType) {
-		super(handler, samples, transfersToBuffer, readbackType);
+	/** Fences after each copy to a read-back buffer. Polled so that pinning a buffer does not block. */
+	private final GLSync[] fences;
+
+	RenderStreamPBOCopy(final StreamHandler handler, final int samples, final int transfersToBuffer, final ReadbackType readbackType, final StreamFormat format) {
+		super(handler, samples, transfersToBuffer, readbackType, format);
+
+		fences = new GLSync[pbos.length];
 	}
 
 	protected void resizeBuffers(final int height, final int stride) {
 		super.resizeBuffers(height, stride);
 
-		devicePBO = glGenBuffers();
-
-		glBindBuffer(GL_PIXEL_PACK_BUFFER, devicePBO);
-		glBufferData(GL_PIXEL_PACK_BUFFER, height * stride, GL_STREAM_COPY); // Should allocate device memory
+		devicePBO = StreamUtil.createBuffer(GL_PIXEL_PACK_BUFFER, height * stride, GL_STREAM_COPY); // Should allocate device memory
 		glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
 	}
 
 	protected void readBack(final int index) {
+		final DirtyRegion region = damage.getReadRegion();
+		if ( region.isEmpty() )
+			return;
+
 		glBindBuffer(GL_PIXEL_PACK_BUFFER, devicePBO);
 
-		super.readBack(index);
+		if ( region.isFull(width, height) )
+			super.readBack(index);
+		else {
+			// The copy below transfers whole rows, read back whole rows too.
+			glPixelStorei(GL_PACK_ROW_LENGTH, stride / format.getBytesPerPixel());
+			if ( partialReadback ) {
+				for ( int i = 0; i < region.getRectCount(); i++ )
+					readBack(0L, 0, region.getY(i), width, region.getHeight(i));
+			} else
+				readBack(0L, 0, 0, width, height);
+			glPixelStorei(GL_PACK_SKIP_PIXELS, 0);
+			glPixelStorei(GL_PACK_SKIP_ROWS, 0);
+			glPixelStorei(GL_PACK_ROW_LENGTH, 0);
+		}
 
 		glBindBuffer(GL_COPY_WRITE_BUFFER, pbos[index]);
 
-		glCopyBufferSubData(GL_PIXEL_PACK_BUFFER, GL_COPY_WRITE_BUFFER, 0, 0, height * stride);
+		for ( int i = 0; i < region.getRectCount(); i++ ) {
+			final int offset = region.getY(i) * stride;
+			glCopyBufferSubData(GL_PIXEL_PACK_BUFFER, GL_COPY_WRITE_BUFFER, offset, offset, region.getHeight(i) * stride);
+		}
 
 		glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
 		glBindBuffer(GL_COPY_READ_BUFFER, 0);
+
+		// The previous transfer to this buffer may have been overwritten before we polled it
+		deleteFence(index);
+		fences[index] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+	}
+
+	protected boolean isTransferComplete(final int index) {
+		return StreamUtil.pollFence(fences, index);
 	}
 
 	protected void pinBuffer(final int index) {
+		deleteFence(index);
+
 		glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[index]);
 
 		// We don't need to manually synchronized here, MapBuffer will block until ReadPixels above has finished.
@@ -108,8 +151,23 @@ final class RenderStreamPBOCopy extends RenderStreamPBO {
 		glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
 	}
 
+	protected void deleteBuffer(final int index) {
+		deleteFence(index);
+		super.deleteBuffer(index);
+	}
+
+	private void deleteFence(final int index) {
+		if ( fences[index] != null ) {
+			glDeleteSync(fences[index]);
+			fences[index] = null;
+		}
+	}
+
 	protected void destroyObjects() {
-		glDeleteBuffers(devicePBO);
+		if ( devicePBO != 0 ) {
+			StreamUtil.deleteBuffer(devicePBO);
+			devicePBO = 0;
+		}
 		super.destroyObjects();
 	}
 }
\ No newline at end of file
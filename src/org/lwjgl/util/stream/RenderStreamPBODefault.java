@@ -33,11 +33,13 @@ package org.lwjgl.util.stream;
 
 import org.lwjgl.opengl.ContextCapabilities;
 import org.lwjgl.opengl.GLContext;
+import org.lwjgl.opengl.GLSync;
 import org.lwjgl.util.stream.StreamUtil.RenderStreamFactory;
 
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL21.*;
 import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL32.*;
 
 /** Default StreamPBOReader implementation: Asynchronous ReadPixels to PBOs */
 final class RenderStreamPBODefault extends RenderStreamPBO {
@@ -48,20 +50,32 @@ final class RenderStreamPBODefault extends RenderStreamPBO {
 		}
 
 		public RenderStream create(final StreamHandler handler, final int samples, final int transfersToBuffer) {
+			return create(handler, samples, transfersToBuffer, getFormat(handler));
+		}
+
+		public boolean isSupported(final ContextCapabilities caps, final StreamFormat format) {
+			return isSupported(caps) && format.isSupported(caps);
+		}
+
+		public RenderStream create(final StreamHandler handler, final int samples, final int transfersToBuffer, final StreamFormat format) {
 			final ContextCapabilities caps = GLContext.getCapabilities();
 
 			return new RenderStreamPBODefault(
 				handler, samples, transfersToBuffer,
 				// Detect NVIDIA and use GetTexImage instead of ReadPixels
-				StreamUtil.isNVIDIA(caps) ? ReadbackType.GET_TEX_IMAGE : ReadbackType.READ_PIXELS
+				StreamUtil.isNVIDIA(caps) ? ReadbackType.GET_TEX_IMAGE : ReadbackType.READ_PIXELS,
+				format
 			);
 		}
 	};
 
 	private final boolean USE_COPY_BUFFER_SUB_DATA;
 
-	RenderStreamPBODefault(final StreamHandler handler, final int samples, final int transfersToBuffer, final ReadbackType readbackType) {
-		super(handler, samples, transfersToBuffer, readbackType);
+	/** Fences after each read-back, if sync objects are supported. Polled so that pinning a buffer does not block. */
+	private final GLSync[] fences;
+
+	RenderStreamPBODefault(final StreamHandler handler, final int samples, final int transfersToBuffer, final ReadbackType readbackType, final StreamFormat format) {
+		super(handler, samples, transfersToBuffer, readbackType, format);
 
 		final ContextCapabilities caps = GLContext.getCapabilities();
 
@@ -69,14 +83,33 @@ final class RenderStreamPBODefault extends RenderStreamPBO {
 		                           // Disable on ATI/AMD GPUs: ARB_copy_buffer is unoptimized on current
 		                           // drivers and kills performance. TODO: Fix?
 		                           !StreamUtil.isAMD(caps);
+
+		fences = caps.OpenGL32 || caps.GL_ARB_sync ? new GLSync[pbos.length] : null;
+	}
+
+	protected void readBack(final int index) {
+		super.readBack(index);
+
+		if ( fences != null ) {
+			// The previous transfer to this buffer may have been overwritten before we polled it
+			if ( fences[index] != null )
+				glDeleteSync(fences[index]);
+			fences[index] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		}
+	}
+
+	protected boolean isTransferComplete(final int index) {
+		return fences == null || StreamUtil.pollFence(fences, index);
 	}
 
 	protected void pinBuffer(final int index) {
+		deleteFence(index);
+
 		glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[index]);
 
 		// We don't need to manually synchronize here, MapBuffer will block until ReadPixels above has finished.
 		// The buffer will be unmapped in waitForProcessingToComplete
-		pinnedBuffers[index] = glMapBuffer(GL_PIXEL_PACK_BUFFER, GL_READ_ONLY, height * stride, pinnedBuffers[index]);
+		pinnedBuffers[index] = glMapBuffer(GL_PIXEL_PACK_BUFFER, GL_READ_ONLY, getFrameSize(), pinnedBuffers[index]);
 
 		glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
 	}
@@ -84,10 +117,10 @@ final class RenderStreamPBODefault extends RenderStreamPBO {
 	protected void copyFrames(final int src, final int trg) {
 		if ( USE_COPY_BUFFER_SUB_DATA ) {
 			glBindBuffer(GL_COPY_WRITE_BUFFER, pbos[trg]);
-			glCopyBufferSubData(GL_PIXEL_PACK_BUFFER, GL_COPY_WRITE_BUFFER, 0, 0, height * stride);
+			glCopyBufferSubData(GL_PIXEL_PACK_BUFFER, GL_COPY_WRITE_BUFFER, 0, 0, getFrameSize());
 			glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
 		} else {
-			pinnedBuffers[src] = glMapBuffer(GL_PIXEL_PACK_BUFFER, GL_READ_ONLY, height * stride, pinnedBuffers[src]);
+			pinnedBuffers[src] = glMapBuffer(GL_PIXEL_PACK_BUFFER, GL_READ_ONLY, getFrameSize(), pinnedBuffers[src]);
 
 			glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[trg]);
 			glBufferSubData(GL_PIXEL_PACK_BUFFER, 0, pinnedBuffers[src]);
@@ -101,4 +134,16 @@ final class RenderStreamPBODefault extends RenderStreamPBO {
 		glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
 	}
 
+	protected void deleteBuffer(final int index) {
+		deleteFence(index);
+		super.deleteBuffer(index);
+	}
+
+	private void deleteFence(final int index) {
+		if ( fences != null && fences[index] != null ) {
+			glDeleteSync(fences[index]);
+			fences[index] = null;
+		}
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GLContext;
+import org.lwjgl.opengl.GLSync;
+import org.lwjgl.util.stream.StreamUtil.RenderStreamFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.lwjgl.opengl.ARBBufferStorage.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL21.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+
+/**
+ * StreamPBOReader implementation for ARB_buffer_storage: Asynchronous ReadPixels to a single persistently mapped,
+ * coherent buffer. The buffer is split into one region per transfer and each region is synchronized with a fence. The
+ * buffer is mapped once per resize, there are no map/unmap calls per frame.
+ */
+final class RenderStreamPBOPersistent extends RenderStreamPBO {
+
+	public static final RenderStreamFactory FACTORY = new RenderStreamFactory("ARB_buffer_storage") {
+		public boolean isSupported(final ContextCapabilities caps) {
+			return RenderStreamPBODefault.FACTORY.isSupported(caps)
+			       && (caps.OpenGL44 || caps.GL_ARB_buffer_storage)
+			       && (caps.OpenGL30 || caps.GL_ARB_map_buffer_range)
+			       && (caps.OpenGL32 || caps.GL_ARB_sync);
+		}
+
+		public RenderStream create(final StreamHandler handler, final int samples, final int transfersToBuffer) {
+			return create(handler, samples, transfersToBuffer, getFormat(handler));
+		}
+
+		public boolean isSupported(final ContextCapabilities caps, final StreamFormat format) {
+			return isSupported(caps) && format.isSupported(caps);
+		}
+
+		public RenderStream create(final StreamHandler handler, final int samples, final int transfersToBuffer, final StreamFormat format) {
+			final ContextCapabilities caps = GLContext.getCapabilities();
+
+			return new RenderStreamPBOPersistent(
+				handler, samples, transfersToBuffer,
+				// Detect NVIDIA and use GetTexImage instead of ReadPixels
+				StreamUtil.isNVIDIA(caps) ? ReadbackType.GET_TEX_IMAGE : ReadbackType.READ_PIXELS,
+				format
+			);
+		}
+	};
+
+	private static final int STORAGE_FLAGS = GL_MAP_READ_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+
+	private final GLSync[] fences;
+
+	private int        buffer;
+	private ByteBuffer mapping;
+	private int        regionSize;
+
+	RenderStreamPBOPersistent(final StreamHandler handler, final int samples, final int transfersToBuffer, final ReadbackType readbackType, final StreamFormat format) {
+		super(handler, samples, transfersToBuffer, readbackType, format);
+
+		fences = new GLSync[pbos.length];
+	}
+
+	public AdaptiveBuffering getAdaptiveBuffering() {
+		return AdaptiveBuffering.OFF;
+	}
+
+	public void setAdaptiveBuffering(final AdaptiveBuffering adaptiveBuffering) {
+		// Not supported, the buffer storage is immutable.
+	}
+
+	protected void resizeBuffers(final int height, final int stride) {
+		regionSize = height * stride;
+
+		final long size = (long)regionSize * transfersToBuffer;
+
+		buffer = glGenBuffers();
+
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, buffer);
+		glBufferStorage(GL_PIXEL_PACK_BUFFER, size, STORAGE_FLAGS);
+		mapping = glMapBufferRange(GL_PIXEL_PACK_BUFFER, 0L, size, STORAGE_FLAGS, null);
+
+		super.resizeBuffers(height, stride);
+	}
+
+	protected void createBuffer(final int index) {
+		pbos[index] = buffer;
+
+		mapping.clear();
+		mapping.position(index * regionSize);
+		mapping.limit(mapping.position() + regionSize);
+
+		pinnedBuffers[index] = mapping.slice().order(ByteOrder.nativeOrder());
+	}
+
+	protected void deleteBuffer(final int index) {
+		if ( fences[index] != null )
+			StreamUtil.waitOnFence(fences, index);
+
+		// The buffer is shared by all regions, it is deleted in destroyObjects.
+		pbos[index] = 0;
+		pinnedBuffers[index] = null;
+	}
+
+	protected long getPackOffset(final int index) {
+		return index * (long)regionSize;
+	}
+
+	protected void readBack(final int index) {
+		// The previous transfer to this region may have been overwritten before we waited on it
+		if ( fences[index] != null ) {
+			glDeleteSync(fences[index]);
+			fences[index] = null;
+		}
+
+		super.readBack(index);
+
+		// Insert a fence after ReadPixels
+		fences[index] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+	}
+
+	protected boolean isTransferComplete(final int index) {
+		return StreamUtil.pollFence(fences, index);
+	}
+
+	protected void pinBuffer(final int index) {
+		if ( fences[index] != null ) // Wait for ReadPixels to the region to complete, the mapping is coherent
+			StreamUtil.waitOnFence(fences, index);
+	}
+
+	protected void copyFrames(final int src, final int trg) {
+		StreamUtil.waitOnFence(fences, src);
+		if ( fences[trg] != null )
+			StreamUtil.waitOnFence(fences, trg);
+
+		final ByteBuffer srcBuffer = pinnedBuffers[src];
+		final ByteBuffer trgBuffer = pinnedBuffers[trg];
+
+		trgBuffer.put(srcBuffer);
+
+		trgBuffer.flip();
+		srcBuffer.flip();
+	}
+
+	protected boolean isPersistentlyMapped() {
+		return true;
+	}
+
+	protected void postProcess(final int index) {
+	}
+
+	protected void destroyObjects() {
+		super.destroyObjects();
+
+		if ( buffer != 0 ) {
+			glBindBuffer(GL_PIXEL_PACK_BUFFER, buffer);
+			glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+			glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+			glDeleteBuffers(buffer);
+			buffer = 0;
+			mapping = null;
+		}
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GLContext;
+import org.lwjgl.opengl.GLSync;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL21.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+
+/**
+ * Reads the color and depth of small regions of a {@link RenderStreamPBO} framebuffer to a ring of small PBOs. The
+ * transfers are polled on every frame and the results are sent to the handlers when they complete, so picking never
+ * blocks the stream.
+ */
+final class RenderStreamPicker {
+
+	/** The number of picks that can be in flight. Further requests wait for a free buffer. */
+	private static final int RING_SIZE = 3;
+
+	/** Without fences, a transfer is assumed complete after this many frames. */
+	private static final int FRAMES_TO_COMPLETE = 2;
+
+	private static final int MAX_SIZE = RenderStream.MAX_PICK_RADIUS * 2 + 1;
+
+	private final StreamUtil.FBOUtil fboUtil;
+
+	private final int[]         pbos;
+	private final GLSync[]      fences; // null if sync objects are not supported
+	private final long[]        issued;
+	private final PickResult[]  results;
+	private final PickHandler[] handlers;
+
+	private final List<Request> requests = new ArrayList<Request>();
+
+	/**
+	 * Single-sampled copy of the picked regions, used with MSAA. Multisampled blits may require identical source and
+	 * destination rectangles, so it has the dimensions of the render framebuffer.
+	 */
+	private int resolveFBO;
+	private int resolveColor;
+	private int resolveDepth;
+	private int resolveWidth;
+	private int resolveHeight;
+
+	private long frame;
+
+	RenderStreamPicker(final StreamUtil.FBOUtil fboUtil) {
+		this.fboUtil = fboUtil;
+
+		final ContextCapabilities caps = GLContext.getCapabilities();
+
+		pbos = new int[RING_SIZE];
+		fences = caps.OpenGL32 || caps.GL_ARB_sync ? new GLSync[RING_SIZE] : null;
+		issued = new long[RING_SIZE];
+		results = new PickResult[RING_SIZE];
+		handlers = new PickHandler[RING_SIZE];
+	}
+
+	void request(final int x, final int y, final int radius, final PickHandler handler) {
+		if ( handler == null )
+			throw new NullPointerException();
+
+		if ( radius < 0 || RenderStream.MAX_PICK_RADIUS < radius )
+			throw new IllegalArgumentException("Invalid pick radius: " + radius);
+
+		requests.add(new Request(x, y, radius, handler));
+	}
+
+	/**
+	 * Sends the completed picks to their handlers and starts the transfers of the pending requests.
+	 *
+	 * @param srcFBO         the framebuffer to read from
+	 * @param multisampled   true if the framebuffer is multisampled and must be resolved first
+	 * @param capacityWidth  the width of the framebuffer storage
+	 * @param capacityHeight the height of the framebuffer storage
+	 */
+	void update(final int srcFBO, final boolean multisampled, final int width, final int height, final int capacityWidth, final int capacityHeight) {
+		frame++;
+
+		for ( int i = 0; i < RING_SIZE; i++ ) {
+			if ( results[i] != null && isComplete(i) )
+				complete(i);
+		}
+
+		for ( int i = 0; i < RING_SIZE && !requests.isEmpty(); i++ ) {
+			if ( results[i] == null )
+				transfer(i, requests.remove(0), srcFBO, multisampled ? getResolveFramebuffer(capacityWidth, capacityHeight) : 0, width, height);
+		}
+	}
+
+	private boolean isComplete(final int index) {
+		return fences == null
+		       ? FRAMES_TO_COMPLETE <= frame - issued[index]
+		       : StreamUtil.pollFence(fences, index);
+	}
+
+	private void transfer(final int index, final Request request, final int srcFBO, final int resolveTo, final int width, final int height) {
+		final int x0 = Math.max(request.x - request.radius, 0);
+		final int y0 = Math.max(request.y - request.radius, 0);
+		final int x1 = Math.min(request.x + request.radius + 1, width);
+		final int y1 = Math.min(request.y + request.radius + 1, height);
+
+		if ( x1 <= x0 || y1 <= y0 ) {
+			// Nothing to read back
+			request.handler.picked(new PickResult(request.x, request.y, request.radius, x0, y0, 0, 0));
+			return;
+		}
+
+		final int w = x1 - x0;
+		final int h = y1 - y0;
+
+		if ( pbos[index] == 0 )
+			pbos[index] = StreamUtil.createBuffer(GL_PIXEL_PACK_BUFFER, MAX_SIZE * MAX_SIZE * 8, GL_STREAM_READ);
+		else
+			glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[index]);
+
+		fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, srcFBO);
+		if ( resolveTo != 0 ) {
+			// Depth cannot be read from a multisampled framebuffer, resolve the region first
+			fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, resolveTo);
+			fboUtil.blitFramebuffer(x0, y0, x1, y1, x0, y0, x1, y1, GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+			fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+			fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, resolveTo);
+		}
+
+		glReadPixels(x0, y0, w, h, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, 0L);
+		glReadPixels(x0, y0, w, h, GL_DEPTH_COMPONENT, GL_FLOAT, w * h * 4L);
+
+		fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, 0);
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+		if ( fences != null )
+			fences[index] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+
+		issued[index] = frame;
+		results[index] = new PickResult(request.x, request.y, request.radius, x0, y0, w, h);
+		handlers[index] = request.handler;
+	}
+
+	private int getResolveFramebuffer(final int width, final int height) {
+		if ( resolveFBO != 0 && resolveWidth == width && resolveHeight == height )
+			return resolveFBO;
+
+		if ( resolveFBO == 0 )
+			resolveFBO = fboUtil.genFramebuffers();
+		else
+			deleteResolveBuffers();
+
+		resolveWidth = width;
+		resolveHeight = height;
+		resolveColor = StreamUtil.createRenderBuffer(fboUtil, width, height, GL_RGBA8);
+		resolveDepth = StreamUtil.createRenderBuffer(fboUtil, width, height, GL_DEPTH24_STENCIL8);
+
+		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, resolveFBO);
+		fboUtil.framebufferRenderbuffer(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER, resolveColor);
+		fboUtil.framebufferRenderbuffer(GL_DRAW_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, resolveDepth);
+		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+
+		return resolveFBO;
+	}
+
+	private void deleteResolveBuffers() {
+		StreamUtil.deleteRenderBuffer(fboUtil, resolveDepth);
+		StreamUtil.deleteRenderBuffer(fboUtil, resolveColor);
+		resolveDepth = resolveColor = 0;
+	}
+
+	private void complete(final int index) {
+		final PickResult result = results[index];
+		final PickHandler handler = handlers[index];
+
+		final int pixels = result.getWidth() * result.getHeight();
+
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[index]);
+		final ByteBuffer data = glMapBuffer(GL_PIXEL_PACK_BUFFER, GL_READ_ONLY, pixels * 8, null).order(ByteOrder.nativeOrder());
+		data.asIntBuffer().get(result.getColors());
+		data.position(pixels * 4);
+		data.asFloatBuffer().get(result.getDepths());
+		glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+		results[index] = null;
+		handlers[index] = null;
+
+		handler.picked(result);
+	}
+
+	/** Deletes the GL objects. Picks that have not completed are discarded. */
+	void destroy() {
+		requests.clear();
+
+		for ( int i = 0; i < RING_SIZE; i++ ) {
+			if ( fences != null && fences[i] != null )
+				StreamUtil.waitOnFence(fences, i);
+			if ( pbos[i] != 0 ) {
+				StreamUtil.deleteBuffer(pbos[i]);
+				pbos[i] = 0;
+			}
+			results[i] = null;
+			handlers[i] = null;
+		}
+
+		if ( resolveFBO != 0 ) {
+			deleteResolveBuffers();
+			fboUtil.deleteFramebuffers(resolveFBO);
+			resolveFBO = 0;
+		}
+	}
+
+	private static final class Request {
+
+		final int x;
+		final int y;
+		final int radius;
+
+		final PickHandler handler;
+
+		Request(final int x, final int y, final int radius, final PickHandler handler) {
+			this.x = x;
+			this.y = y;
+			this.radius = radius;
+			this.handler = handler;
+		}
+
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import org.lwjgl.opengl.GLSync;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL21.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+
+/**
+ * A secondary output of a {@link RenderStreamPBO}. Every frame is scaled to the handler dimensions with a linear blit and
+ * read back to a separate PBO ring, so only the scaled pixels are transferred.
+ * <p/>
+ * The output never blocks the stream. Transfers are polled with fences and the newest completed frame is sent to the
+ * handler. Frames are dropped if the handler is still processing every buffer.
+ */
+final class RenderStreamScaledOutput extends StreamBufferedPBO {
+
+	private final StreamUtil.FBOUtil fboUtil;
+	private final int                fbo;
+
+	private int colorBuffer;
+
+	private final GLSync[] fences;
+	private final long[]   pending; // The frame read back to each buffer and not sent to the handler yet, -1 if none
+
+	RenderStreamScaledOutput(final StreamHandler handler, final int transfersToBuffer, final StreamFormat format, final StreamUtil.FBOUtil fboUtil) {
+		super(handler, transfersToBuffer, format);
+
+		this.fboUtil = fboUtil;
+		this.fbo = fboUtil.genFramebuffers();
+
+		fences = new GLSync[transfersToBuffer];
+		pending = new long[transfersToBuffer];
+		for ( int i = 0; i < pending.length; i++ )
+			pending[i] = -1L;
+	}
+
+	StreamHandler getHandler() {
+		return handler;
+	}
+
+	protected void resize(final int width, final int height) {
+		if ( width < 0 || height < 0 )
+			throw new IllegalArgumentException("Invalid dimensions: " + width + " x " + height);
+
+		destroyObjects();
+
+		this.width = width;
+		this.height = height;
+
+		if ( width == 0 || height == 0 )
+			return;
+
+		this.stride = StreamUtil.getStride(width, format);
+
+		// Scaled frames are always complete
+		damage.reset(width, height);
+
+		colorBuffer = StreamUtil.createRenderBuffer(fboUtil, width, height, GL_RGBA8);
+
+		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, fbo);
+		fboUtil.framebufferRenderbuffer(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER, colorBuffer);
+		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+
+		resizeBuffers(height, stride, GL_PIXEL_PACK_BUFFER, GL_STREAM_READ);
+	}
+
+	/**
+	 * Scales the specified frame from the source framebuffer and sends the newest completed frame to the handler.
+	 * Changes the GL_PIXEL_PACK_BUFFER binding.
+	 *
+	 * @param orientation the orientation of the source framebuffer, the output keeps it
+	 */
+	void update(final int srcFBO, final int srcWidth, final int srcHeight, final long frame, final Object metadata, final StreamOrientation orientation) {
+		checkSize();
+
+		this.orientation = orientation;
+
+		if ( width == 0 || height == 0 )
+			return;
+
+		reclaimBuffers();
+		handOff();
+
+		final int index = getTarget();
+		if ( index == -1 ) {
+			droppedFrames++;
+			return;
+		}
+
+		fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, srcFBO);
+		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, fbo);
+		fboUtil.blitFramebuffer(0, 0, srcWidth, srcHeight, 0, 0, width, height, GL_COLOR_BUFFER_BIT, GL_LINEAR);
+		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+
+		fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, fbo);
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[index]);
+		glPixelStorei(GL_PACK_ROW_LENGTH, stride / format.getBytesPerPixel());
+		glReadPixels(0, 0, width, height, format.getTransferFormat(), format.getTransferType(), 0L);
+		glPixelStorei(GL_PACK_ROW_LENGTH, 0);
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+		fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, 0);
+
+		if ( fences[index] != null )
+			glDeleteSync(fences[index]);
+		fences[index] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+
+		setFrameMetadata(metadata);
+		capture(index, frame);
+		pending[index] = frame;
+	}
+
+	/** Reclaims the buffers the handler has released. */
+	private void reclaimBuffers() {
+		for ( int i = 0; i < transfersToBuffer; i++ ) {
+			if ( ring.isBusy(i) && ring.isReleased(i) ) {
+				glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[i]);
+				waitForProcessingToComplete(i);
+			}
+		}
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+	}
+
+	/** Sends the newest completed transfer to the handler. Older pending transfers are dropped. */
+	private void handOff() {
+		int newest = -1;
+		for ( int i = 0; i < transfersToBuffer; i++ ) {
+			if ( pending[i] != -1L && StreamUtil.pollFence(fences, i) && (newest == -1 || pending[newest] < pending[i]) )
+				newest = i;
+		}
+
+		if ( newest == -1 )
+			return;
+
+		for ( int i = 0; i < transfersToBuffer; i++ ) {
+			if ( pending[i] != -1L && pending[i] < pending[newest] ) {
+				pending[i] = -1L;
+				droppedFrames++;
+			}
+		}
+		pending[newest] = -1L;
+
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[newest]);
+		pinnedBuffers[newest] = glMapBuffer(GL_PIXEL_PACK_BUFFER, GL_READ_ONLY, height * stride, pinnedBuffers[newest]);
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+		processBuffer(newest);
+	}
+
+	/** Returns a buffer that is neither being processed nor pending, or the oldest pending buffer, or -1 if every buffer is being processed. */
+	private int getTarget() {
+		int oldest = -1;
+		for ( int i = 0; i < transfersToBuffer; i++ ) {
+			if ( ring.isBusy(i) )
+				continue;
+
+			if ( pending[i] == -1L )
+				return i;
+
+			if ( oldest == -1 || pending[i] < pending[oldest] )
+				oldest = i;
+		}
+
+		if ( oldest != -1 ) {
+			pending[oldest] = -1L;
+			droppedFrames++;
+		}
+
+		return oldest;
+	}
+
+	protected void postProcess(final int index) {
+		glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+	}
+
+	protected void deleteBuffer(final int index) {
+		if ( fences[index] != null ) {
+			glDeleteSync(fences[index]);
+			fences[index] = null;
+		}
+		pending[index] = -1L;
+
+		super.deleteBuffer(index);
+	}
+
+	private void destroyObjects() {
+		for ( int i = 0; i < transfersToBuffer; i++ ) {
+			if ( ring.isBusy(i) ) {
+				glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[i]);
+				waitForProcessingToComplete(i);
+			}
+		}
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+		for ( int i = 0; i < pbos.length; i++ ) {
+			if ( pbos[i] != 0 )
+				deleteBuffer(i);
+		}
+
+		if ( colorBuffer != 0 ) {
+			StreamUtil.deleteRenderBuffer(fboUtil, colorBuffer);
+			colorBuffer = 0;
+		}
+	}
+
+	void destroy() {
+		destroyObjects();
+		fboUtil.deleteFramebuffers(fbo);
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+/**
+ * Coalesces the reallocations of a stream during interactive resizing.
+ * <p/>
+ * While the handler dimensions keep changing, the frames follow them within the current allocations, the stream only
+ * restarts with a smaller viewport. Frames larger than the allocations are clamped to them, the consumer scales those.
+ * The allocations are replaced once the dimensions have been stable for the settle time. If a drag lasts longer than a
+ * few settle times, they are replaced earlier, with room for where the drag will probably be by the next replacement.
+ * The committed dimensions never exceed the requested ones.
+ */
+final class ResizeGovernor {
+
+	// A long drag reallocates every MAX_HOLD settle times.
+	private static final int MAX_HOLD = 4;
+
+	private long settleTime; // 0 disables the governor
+
+	private boolean dragging;
+
+	private int  requestedWidth;
+	private int  requestedHeight;
+	private long lastChange;
+	private long lastAllocation;
+
+	// Drag velocity, in pixels per second
+	private double velocityX;
+	private double velocityY;
+
+	private int width;
+	private int height;
+	private int reserveWidth;
+	private int reserveHeight;
+
+	ResizeGovernor() {
+	}
+
+	long getSettleTime() {
+		return settleTime;
+	}
+
+	void setSettleTime(final long settleTime) {
+		this.settleTime = settleTime;
+		dragging = false;
+	}
+
+	/** Returns true while a drag is being coalesced. The allocations should not shrink until it settles. */
+	boolean isDragging() {
+		return dragging;
+	}
+
+	/** Returns the width the stream should resize to. Valid after {@link #update} has returned true. */
+	int getWidth() {
+		return width;
+	}
+
+	/** Returns the height the stream should resize to. Valid after {@link #update} has returned true. */
+	int getHeight() {
+		return height;
+	}
+
+	/** Returns the minimum width of the allocations, if the stream reallocates. Valid after {@link #update} has returned true. */
+	int getReserveWidth() {
+		return reserveWidth;
+	}
+
+	/** Returns the minimum height of the allocations, if the stream reallocates. Valid after {@link #update} has returned true. */
+	int getReserveHeight() {
+		return reserveHeight;
+	}
+
+	/**
+	 * Called on every frame with the current and the requested dimensions.
+	 *
+	 * @param capacityWidth  the largest width the stream can resize to without reallocating, 0 if it always reallocates
+	 * @param capacityHeight the largest height the stream can resize to without reallocating, 0 if it always reallocates
+	 *
+	 * @return true if the stream should resize to {@link #getWidth()} x {@link #getHeight()}
+	 */
+	boolean update(
+		final int currentWidth, final int currentHeight,
+		final int requestedWidth, final int requestedHeight,
+		final int capacityWidth, final int capacityHeight,
+		final StreamStats stats
+	) {
+		// While dragging, the frames may already have the requested dimensions but the allocations have not settled
+		if ( !dragging && requestedWidth == currentWidth && requestedHeight == currentHeight )
+			return false;
+
+		final boolean changed = !dragging || requestedWidth != this.requestedWidth || requestedHeight != this.requestedHeight;
+		if ( changed && stats != null )
+			stats.countResizeRequest();
+
+		// Commit immediately when disabled, or if there's nothing to scale from or to.
+		if ( settleTime == 0L || currentWidth == 0 || currentHeight == 0 || requestedWidth == 0 || requestedHeight == 0 ) {
+			dragging = false;
+			return commit(requestedWidth, requestedHeight, requestedWidth, requestedHeight);
+		}
+
+		final long time = System.nanoTime();
+
+		if ( !dragging ) {
+			dragging = true;
+
+			velocityX = velocityY = 0.0;
+			lastChange = lastAllocation = time;
+		} else if ( changed ) {
+			final double seconds = Math.max(time - lastChange, 1L) / (1000.0 * 1000.0 * 1000.0);
+
+			velocityX = 0.5 * velocityX + 0.5 * (requestedWidth - this.requestedWidth) / seconds;
+			velocityY = 0.5 * velocityY + 0.5 * (requestedHeight - this.requestedHeight) / seconds;
+
+			lastChange = time;
+		}
+
+		this.requestedWidth = requestedWidth;
+		this.requestedHeight = requestedHeight;
+
+		if ( settleTime <= time - lastChange ) {
+			// The stream also reallocates if the drag has left the allocations much larger than the frames
+			dragging = false;
+			return commit(requestedWidth, requestedHeight, requestedWidth, requestedHeight);
+		}
+
+		final boolean fits = requestedWidth <= capacityWidth && requestedHeight <= capacityHeight;
+		if ( !fits && settleTime * MAX_HOLD <= time - lastAllocation ) {
+			lastAllocation = time;
+
+			// Reserve room for where the drag will probably be at the next reallocation. At most 50% more than requested.
+			final double seconds = settleTime * MAX_HOLD / (1000.0 * 1000.0 * 1000.0);
+			return commit(
+				requestedWidth, requestedHeight,
+				predict(requestedWidth, velocityX * seconds),
+				predict(requestedHeight, velocityY * seconds)
+			);
+		}
+
+		// Follow the drag within the allocations. Streams that always reallocate keep their dimensions until the next commit.
+		final int width = capacityWidth == 0 ? currentWidth : Math.min(requestedWidth, capacityWidth);
+		final int height = capacityHeight == 0 ? currentHeight : Math.min(requestedHeight, capacityHeight);
+
+		return (width != currentWidth || height != currentHeight) && commit(width, height, width, height);
+	}
+
+	private static int predict(final int size, final double delta) {
+		return (int)Math.min(size + Math.max(delta, 0.0), size + (size >> 1));
+	}
+
+	private boolean commit(final int width, final int height, final int reserveWidth, final int reserveHeight) {
+		this.width = width;
+		this.height = height;
+		this.reserveWidth = reserveWidth;
+		this.reserveHeight = reserveHeight;
+
+		return true;
+	}
+
+}
\ No newline at end of file
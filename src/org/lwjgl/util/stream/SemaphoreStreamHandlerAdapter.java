@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Adapts a {@link SemaphoreStreamHandler} to {@link StreamHandler}, so that handlers written for earlier versions of this
+ * package work unchanged. The handler receives one Semaphore per stream buffer, reused for every hand-off of that
+ * buffer. Releasing it releases the {@link StreamSignal} of the buffer, the permit count of the Semaphore is not used.
+ */
+@SuppressWarnings("deprecation")
+public final class SemaphoreStreamHandlerAdapter implements StreamHandler {
+
+	private final SemaphoreStreamHandler handler;
+
+	/** The semaphore of each stream buffer. Rendering thread only. */
+	private SignalSemaphore[] semaphores = new SignalSemaphore[4];
+
+	public SemaphoreStreamHandlerAdapter(final SemaphoreStreamHandler handler) {
+		if ( handler == null )
+			throw new IllegalArgumentException("The handler must not be null.");
+
+		this.handler = handler;
+	}
+
+	public SemaphoreStreamHandler getHandler() {
+		return handler;
+	}
+
+	public int getWidth() {
+		return handler.getWidth();
+	}
+
+	public int getHeight() {
+		return handler.getHeight();
+	}
+
+	public void process(final int width, final int height, final ByteBuffer data, final int stride, final StreamSignal signal) {
+		// This method runs in the rendering thread
+		final int index = signal.getIndex();
+		if ( semaphores.length <= index ) {
+			final SignalSemaphore[] newSemaphores = new SignalSemaphore[Math.max(semaphores.length * 2, index + 1)];
+			System.arraycopy(semaphores, 0, newSemaphores, 0, semaphores.length);
+			semaphores = newSemaphores;
+		}
+
+		// Another stream, or a recreated ring, has its own signals
+		SignalSemaphore semaphore = semaphores[index];
+		if ( semaphore == null || semaphore.signal != signal )
+			semaphore = semaphores[index] = new SignalSemaphore(signal);
+
+		handler.process(width, height, data, stride, semaphore);
+	}
+
+	/** A Semaphore that releases a stream signal. */
+	private static final class SignalSemaphore extends Semaphore {
+
+		private static final long serialVersionUID = 1L;
+
+		final transient StreamSignal signal;
+
+		SignalSemaphore(final StreamSignal signal) {
+			super(0);
+			this.signal = signal;
+		}
+
+		public void release() {
+			signal.release();
+		}
+
+		public void release(final int permits) {
+			if ( permits != 1 )
+				throw new IllegalArgumentException("Invalid permits: " + permits);
+
+			signal.release();
+		}
+
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.*;
+
+/**
+ * A full-screen shader pass. The fragment shader runs once for every pixel of the current viewport, with a fixed
+ * vertex shader. The GL state the pass changes is restored in {@link #end()}.
+ */
+final class ShaderPass {
+
+	private static final String VERTEX_SHADER =
+		"#version 110\n" +
+		"void main(void) {\n" +
+		"\tgl_Position = gl_Vertex;\n" +
+		"}";
+
+	private final int program;
+	private final int vertexShader;
+	private final int fragmentShader;
+
+	private int previousProgram;
+
+	ShaderPass(final String fragmentSource) {
+		vertexShader = compile(GL_VERTEX_SHADER, VERTEX_SHADER);
+		try {
+			fragmentShader = compile(GL_FRAGMENT_SHADER, fragmentSource);
+		} catch (IllegalStateException e) {
+			glDeleteShader(vertexShader);
+			throw e;
+		}
+
+		program = glCreateProgram();
+		glAttachShader(program, vertexShader);
+		glAttachShader(program, fragmentShader);
+		glLinkProgram(program);
+		if ( glGetProgrami(program, GL_LINK_STATUS) == GL_FALSE ) {
+			final String log = glGetProgramInfoLog(program, glGetProgrami(program, GL_INFO_LOG_LENGTH));
+			destroy();
+			throw new IllegalStateException("Failed to link shader program: " + log);
+		}
+	}
+
+	private static int compile(final int type, final String source) {
+		final int shader = glCreateShader(type);
+		glShaderSource(shader, source);
+		glCompileShader(shader);
+		if ( glGetShaderi(shader, GL_COMPILE_STATUS) == GL_FALSE ) {
+			final String log = glGetShaderInfoLog(shader, glGetShaderi(shader, GL_INFO_LOG_LENGTH));
+			glDeleteShader(shader);
+			throw new IllegalStateException("Failed to compile shader: " + log);
+		}
+		return shader;
+	}
+
+	int getUniformLocation(final String name) {
+		return glGetUniformLocation(program, name);
+	}
+
+	/** Makes the program current and disables the fragment operations that would affect the output. */
+	void begin() {
+		glPushAttrib(GL_ENABLE_BIT | GL_VIEWPORT_BIT | GL_SCISSOR_BIT | GL_COLOR_BUFFER_BIT | GL_TEXTURE_BIT | GL_POLYGON_BIT);
+
+		glDisable(GL_DEPTH_TEST);
+		glDisable(GL_STENCIL_TEST);
+		glDisable(GL_SCISSOR_TEST);
+		glDisable(GL_BLEND);
+		glDisable(GL_ALPHA_TEST);
+		glDisable(GL_CULL_FACE);
+		glPolygonMode(GL_FRONT_AND_BACK, GL_FILL);
+		glColorMask(true, true, true, true);
+
+		previousProgram = glGetInteger(GL_CURRENT_PROGRAM);
+		glUseProgram(program);
+	}
+
+	/** Covers the viewport. */
+	void draw() {
+		glRectf(-1.0f, -1.0f, 1.0f, 1.0f);
+	}
+
+	void end() {
+		glUseProgram(previousProgram);
+		glPopAttrib();
+	}
+
+	void destroy() {
+		glDeleteProgram(program);
+		glDeleteShader(vertexShader);
+		glDeleteShader(fragmentShader);
+	}
+
+}
\ No newline at end of file
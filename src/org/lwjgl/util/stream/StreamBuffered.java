@@ -31,58 +31,372 @@
  */
 package org.lwjgl.util.stream;
 
+import org.lwjgl.util.stream.RenderStream.BackPressure;
+import org.lwjgl.util.stream.StreamStats.Stage;
+
 import java.nio.ByteBuffer;
-import java.util.BitSet;
-import java.util.concurrent.Semaphore;
+
+import static org.lwjgl.opengl.GL11.*;
 
 /** Base functionality for buffered transfers. */
 abstract class StreamBuffered {
 
-	protected final StreamHandler handler;
+	protected final StreamHandler      handler;
+	private final   StreamFrameHandler frameHandler;
 
 	// Low: Less memory usage, less concurrency, less transfers behind
 	// High: More memory usages, more concurrency, more transfers behind
-	protected final int transfersToBuffer; // 3 provides optimal concurrency in most cases
+	protected int transfersToBuffer; // 3 provides optimal concurrency in most cases
 
 	protected final ByteBuffer[] pinnedBuffers;
-	protected final Semaphore[]  semaphores; // Required for synchronization with the processing thread
+	protected final StreamRing   ring; // Required for synchronization with the processing thread
 
-	/**
-	 * A flag per pinned buffer that indicates if it's currently being
-	 * processed by the handler.
-	 */
-	protected final BitSet processingState;
+	private final StreamFrame[] frames;
+
+	protected final DamageTracker damage;
+
+	private final ResizeGovernor resizeGovernor = new ResizeGovernor();
+
+	private       TileChangeDetector changeDetector;
+	private final boolean[]          detecting; // The buffers mapped while a detector was set
+
+	protected long   frameIndex;
+	private   Object metadata;
+
+	protected final StreamFormat format;
+
+	protected StreamOrientation orientation = StreamOrientation.BOTTOM_UP;
 
 	protected int width;
 	protected int height;
 	protected int stride;
 
+	// The dimensions the GL objects were allocated for, greater than or equal to the current dimensions.
+	protected int capacityWidth;
+	protected int capacityHeight;
+
+	// The capacity the resize governor asks for, during a resize
+	private int reserveWidth;
+	private int reserveHeight;
+
 	protected long bufferIndex;
 
+	protected BackPressure backPressure = BackPressure.BLOCK;
+
+	private long uploadDeadline; // ns, texture streams only
+
+	protected volatile long droppedFrames;
+
+	protected StreamStats stats;
+	protected StreamTimer timer;
+
 	protected StreamBuffered(final StreamHandler handler, final int transfersToBuffer) {
+		this(handler, transfersToBuffer, transfersToBuffer, StreamFormat.BGRA8);
+	}
+
+	/**
+	 * Creates a stream that may change its buffering at runtime.
+	 *
+	 * @param capacity the maximum number of buffers the stream will ever use
+	 * @param format   the pixel format of the buffers
+	 */
+	protected StreamBuffered(final StreamHandler handler, final int transfersToBuffer, final int capacity, final StreamFormat format) {
 		this.handler = handler;
+		this.frameHandler = handler instanceof StreamFrameHandler ? (StreamFrameHandler)handler : null;
 		this.transfersToBuffer = transfersToBuffer;
+		this.format = format;
 
-		pinnedBuffers = new ByteBuffer[transfersToBuffer];
-		semaphores = new Semaphore[transfersToBuffer];
-		for ( int i = 0; i < semaphores.length; i++ )
-			semaphores[i] = new Semaphore(1, false);
+		pinnedBuffers = new ByteBuffer[capacity];
+		ring = new StreamRing(capacity);
 
-		processingState = new BitSet(transfersToBuffer);
+		frames = new StreamFrame[capacity];
+		for ( int i = 0; i < capacity; i++ )
+			frames[i] = new StreamFrame(ring.getSignal(i), i);
+
+		damage = new DamageTracker(capacity);
+		detecting = new boolean[capacity];
 	}
 
-	protected void waitForProcessingToComplete(final int index) {
-		final Semaphore s = semaphores[index];
-		// Early-out: start-up or handler has finished processing
-		if ( s.availablePermits() == 0 ) {
-			// This will block until handler has finished processing
-			s.acquireUninterruptibly();
-			// Give the permit back
-			s.release();
+	public long getResizeSettleTime() {
+		return resizeGovernor.getSettleTime() / (1000L * 1000L);
+	}
+
+	public void setResizeSettleTime(final long millis) {
+		if ( millis < 0L )
+			throw new IllegalArgumentException("Invalid settle time: " + millis);
+
+		resizeGovernor.setSettleTime(millis * 1000L * 1000L);
+	}
+
+	/** Resizes the stream if the handler dimensions have changed, as allowed by the resize governor. */
+	protected void checkSize() {
+		final boolean reuse = reusesCapacity();
+		if ( !resizeGovernor.update(
+			width, height,
+			handler.getWidth(), handler.getHeight(),
+			reuse ? capacityWidth : 0, reuse ? capacityHeight : 0,
+			stats
+		) )
+			return;
+
+		final int width = resizeGovernor.getWidth();
+		final int height = resizeGovernor.getHeight();
+		// A settled drag may have left the allocations too large, resizing to the same dimensions replaces them
+		if ( width == this.width && height == this.height && (!reuse || fitsCapacity(width, height)) )
+			return;
+
+		final long resizeTime = stats == null ? 0L : System.nanoTime();
+
+		reserveWidth = resizeGovernor.getReserveWidth();
+		reserveHeight = resizeGovernor.getReserveHeight();
+		resize(width, height);
+		reserveWidth = reserveHeight = 0;
+
+		if ( stats != null )
+			stats.record(Stage.RESIZE, System.nanoTime() - resizeTime);
+	}
+
+	protected abstract void resize(int width, int height);
+
+	/** Returns true if the stream renders frames smaller than its allocations, with {@link #fitsCapacity} and {@link #setCapacity}. */
+	protected boolean reusesCapacity() {
+		return true;
+	}
+
+	/**
+	 * Returns true if frames of the specified dimensions fit the current allocations. There's hysteresis on shrinking,
+	 * the allocations are kept until a dimension drops below half the capacity, or until an interactive resize settles.
+	 */
+	protected boolean fitsCapacity(final int width, final int height) {
+		return width <= capacityWidth && height <= capacityHeight
+		       && (resizeGovernor.isDragging() || (capacityWidth <= width * 2 && capacityHeight <= height * 2));
+	}
+
+	/**
+	 * Sets the capacity for frames of the specified dimensions. The first allocation is exact. A reallocation means the
+	 * dimensions are changing, probably interactively, so 25% headroom is added to absorb the next few changes, or more
+	 * if the resize governor predicts that a drag will grow further.
+	 */
+	protected void setCapacity(final int width, final int height) {
+		if ( width == 0 || height == 0 || capacityWidth == 0 ) {
+			capacityWidth = width;
+			capacityHeight = height;
+		} else {
+			final int maxSize = glGetInteger(GL_MAX_TEXTURE_SIZE);
+
+			capacityWidth = Math.max(width, Math.min(Math.max(width + (width >> 2), reserveWidth), maxSize));
+			capacityHeight = Math.max(height, Math.min(Math.max(height + (height >> 2), reserveHeight), maxSize));
 		}
+	}
+
+	public long getUploadDeadline() {
+		return uploadDeadline / (1000L * 1000L);
+	}
+
+	public void setUploadDeadline(final long millis) {
+		if ( millis < 0L )
+			throw new IllegalArgumentException("Invalid deadline: " + millis);
+
+		this.uploadDeadline = millis * 1000L * 1000L;
+	}
+
+	/**
+	 * Waits up to the upload deadline for the handler to finish processing the buffer at the specified index.
+	 *
+	 * @return true if the buffer has been released and reclaimed, false if the handler is still processing it
+	 */
+	protected boolean tryProcessingToComplete(final int index) {
+		if ( !ring.await(index, uploadDeadline) )
+			return false;
+
+		waitForProcessingToComplete(index);
+		return true;
+	}
+
+	protected void waitForProcessingToComplete(final int index) {
+		// This will block until handler has finished processing
+		ring.await(index);
+
+		if ( stats != null )
+			stats.record(Stage.HANDLER, ring.getTurnaround(index));
+
+		detectChanges(index);
 
 		postProcess(index);
-		processingState.set(index, false);
+		ring.reclaim(index);
+	}
+
+	public BackPressure getBackPressure() {
+		return backPressure;
+	}
+
+	public void setBackPressure(final BackPressure backPressure) {
+		if ( backPressure == null )
+			throw new NullPointerException();
+
+		this.backPressure = backPressure;
+	}
+
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	public Object getFrameMetadata() {
+		return metadata;
+	}
+
+	public void setFrameMetadata(final Object metadata) {
+		this.metadata = metadata;
+	}
+
+	/** Records that the specified frame has been captured to the buffer at the specified index. */
+	protected void capture(final int index, final long frame) {
+		frames[index].capture(frame, System.nanoTime(), metadata, orientation);
+	}
+
+	/** Returns the orientation of the frame captured to the buffer at the specified index. */
+	protected StreamOrientation getOrientation(final int index) {
+		return frames[index].getOrientation();
+	}
+
+	/** Records that the frame captured to the buffer at index <code>src</code> has been copied to the buffer at index <code>trg</code>. */
+	protected void copyCapture(final int src, final int trg) {
+		frames[trg].copyCapture(frames[src]);
+		damage.copy(src, trg);
+	}
+
+	public StreamOrientation getOrientation() {
+		return orientation;
+	}
+
+	public TileChangeDetector getChangeDetector() {
+		return changeDetector;
+	}
+
+	public void setChangeDetector(final TileChangeDetector changeDetector) {
+		this.changeDetector = changeDetector;
+	}
+
+	/**
+	 * Called before the buffer at the specified index is mapped for the handler.
+	 *
+	 * @return true if the buffer must be mapped for reading too
+	 */
+	protected boolean prepareDetection(final int index) {
+		return detecting[index] = changeDetector != null;
+	}
+
+	/** Prepares the buffer at the specified index for a frame written by the handler. */
+	protected void prepareWrite(final int index, final boolean full) {
+		// Without a change detector, the damage can only come from the handler
+		damage.prepare(index, full || (!detecting[index] && (!damage.isEnabled() || frameHandler == null)));
+	}
+
+	/** Adds the changes detected in the buffer at the specified index to its damage. Must be called before the buffer is unmapped. */
+	protected void detectChanges(final int index) {
+		if ( !detecting[index] )
+			return;
+
+		if ( changeDetector == null ) // Removed while the buffer was being processed
+			damage.getDamage(index).setFull(width, height);
+		else
+			changeDetector.detect(pinnedBuffers[index], width, height, stride, format.getBytesPerPixel(), damage.getDamage(index));
+	}
+
+	/** Returns true if the pinned buffers stay mapped, at the same address, until the stream is resized or destroyed. */
+	protected boolean isPersistentlyMapped() {
+		return false;
+	}
+
+	/** Sends the buffer at the specified index to the handler. */
+	protected void processBuffer(final int index) {
+		final StreamSignal signal = ring.acquire(index);
+
+		if ( frameHandler == null )
+			handler.process(width, height, pinnedBuffers[index], stride, signal);
+		else {
+			final StreamFrame frame = frames[index];
+			frame.set(format, width, height, stride, pinnedBuffers[index], damage.getDamage(index), isPersistentlyMapped());
+			frameHandler.process(frame);
+		}
+	}
+
+	public boolean isDamageTracking() {
+		return damage.isEnabled();
+	}
+
+	public void setDamageTracking(final boolean enabled) {
+		damage.setEnabled(enabled);
+	}
+
+	public void addDamage(final int x, final int y, final int width, final int height) {
+		damage.add(x, y, width, height);
+	}
+
+	public StreamStats getStats() {
+		return stats;
+	}
+
+	public void setStats(final StreamStats stats) {
+		destroyTimer();
+
+		this.stats = stats;
+
+		if ( stats != null )
+			timer = new StreamTimer(pinnedBuffers.length);
+	}
+
+	protected void destroyTimer() {
+		if ( timer != null ) {
+			timer.destroy();
+			timer = null;
+		}
+	}
+
+	protected void beginStage(final int index, final Stage stage) {
+		if ( timer != null )
+			timer.begin(index, stage);
+	}
+
+	protected void endStage(final int index, final Stage stage) {
+		if ( timer != null )
+			timer.end(index, stage);
+	}
+
+	/**
+	 * Records a hand-off of the buffer at the specified index, along with the stages measured since its previous hand-off.
+	 *
+	 * @param mapWait the time spent waiting for the buffer to become available
+	 */
+	protected void countFrame(final int index, final long mapWait) {
+		if ( stats == null )
+			return;
+
+		timer.collect(index, stats);
+
+		stats.record(Stage.MAP_WAIT, mapWait);
+		stats.countFrame();
+	}
+
+	/**
+	 * Applies the back-pressure policy to the buffer at the specified index. Returns the index of the buffer the current
+	 * frame should be transferred to, or -1 if it should be dropped.
+	 * <p/>
+	 * The result is <code>index</code> unless the buffer is still being processed and the policy does not allow blocking.
+	 * In that case LATEST_WINS returns <code>previousIndex</code>, the buffer of the previous frame, which has not been sent
+	 * to the handler yet. With a single buffer there is no such buffer, LATEST_WINS drops the frame too.
+	 */
+	protected int getTransferTarget(final int index, final int previousIndex) {
+		if ( !ring.isBusy(index) || ring.isReleased(index) || backPressure == BackPressure.BLOCK )
+			return index;
+
+		droppedFrames++;
+		if ( stats != null )
+			stats.countDroppedFrame();
+
+		return backPressure == BackPressure.DROP_NEWEST || transfersToBuffer == 1
+		       ? -1
+		       : previousIndex;
 	}
 
 	protected abstract void postProcess(int index);
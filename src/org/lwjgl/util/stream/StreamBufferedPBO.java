@@ -37,26 +37,40 @@ import static org.lwjgl.opengl.GL15.*;
 abstract class StreamBufferedPBO extends StreamBuffered {
 
 	protected final int[] pbos;
+	protected final int[] pboSizes; // The storage size of each PBO, may be larger than a frame
 
-	protected StreamBufferedPBO(final StreamHandler handler, final int transfersToBuffer) {
-		super(handler, transfersToBuffer);
+	protected StreamBufferedPBO(final StreamHandler handler, final int transfersToBuffer, final StreamFormat format) {
+		this(handler, transfersToBuffer, transfersToBuffer, format);
+	}
+
+	protected StreamBufferedPBO(final StreamHandler handler, final int transfersToBuffer, final int capacity, final StreamFormat format) {
+		super(handler, transfersToBuffer, capacity, format);
 
-		pbos = new int[transfersToBuffer];
+		pbos = new int[capacity];
+		pboSizes = new int[capacity];
 	}
 
 	protected void resizeBuffers(final int height, final int stride, final int pboTarget, final int pboUsage) {
-		final int renderBytes = height * stride;
+		for ( int i = 0; i < transfersToBuffer; i++ )
+			createBuffer(i, height * stride, pboTarget, pboUsage);
 
-		for ( int i = 0; i < pbos.length; i++ ) {
-			pbos[i] = glGenBuffers();
+		glBindBuffer(pboTarget, 0);
+	}
 
-			glBindBuffer(pboTarget, pbos[i]);
-			glBufferData(pboTarget, renderBytes, pboUsage);
+	/** Creates the PBO at the specified index. Leaves it bound to <code>pboTarget</code>. */
+	protected void createBuffer(final int index, final int size, final int pboTarget, final int pboUsage) {
+		pbos[index] = StreamUtil.createBuffer(pboTarget, size, pboUsage);
+		pboSizes[index] = StreamUtil.getBufferSize(pbos[index]);
 
-			pinnedBuffers[i] = null;
-		}
+		pinnedBuffers[index] = null;
+	}
 
-		glBindBuffer(pboTarget, 0);
+	protected void deleteBuffer(final int index) {
+		StreamUtil.deleteBuffer(pbos[index]);
+		pbos[index] = 0;
+		pboSizes[index] = 0;
+
+		pinnedBuffers[index] = null;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import org.lwjgl.opengl.ContextCapabilities;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL41.*;
+
+/**
+ * The pixel formats of stream buffers. Render streams always render in full colour, the conversion to the stream format
+ * happens during the read-back. Texture streams upload to a texture of the stream format. Rows are padded to the stream
+ * stride, handlers that implement {@link StreamFrameHandler} receive the format with {@link StreamFrame#getFormat()}.
+ * <p/>
+ * Render streams multiply the color channels of the premultiplied formats by alpha on the GPU, before the read-back.
+ * Texture streams upload them as they are, the handler writes premultiplied pixels. They match the JavaFX pixel formats
+ * of the same name, so frames can be exchanged with JavaFX images without conversion.
+ * <p/>
+ * The YUV formats are converted on the GPU and are only supported by render streams. Their stride is the stride of the
+ * luma rows, the planes are described by {@link StreamFrame#getPlaneOffset} and {@link StreamFrame#getPlaneStride}.
+ */
+public enum StreamFormat {
+
+	/** 8 bits per channel, in B, G, R, A byte order. Transferred as GL_BGRA/GL_UNSIGNED_INT_8_8_8_8_REV. */
+	BGRA8(4, GL_RGBA8, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV),
+	/** 8 bits per channel, premultiplied, in B, G, R, A byte order on every platform. Matches JavaFX's ByteBgraPre. */
+	BGRA8_PRE(4, GL_RGBA8, GL_BGRA, GL_UNSIGNED_BYTE),
+	/** 8 bits per channel, premultiplied, packed as 0xAARRGGBB in native order ints. Matches JavaFX's IntArgbPre. */
+	ARGB8_PRE(4, GL_RGBA8, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV),
+	/** 8 bits per channel, in R, G, B byte order, no alpha. Matches JavaFX's ByteRgb. Strides are a multiple of 3 bytes. */
+	RGB8(3, GL_RGB8, GL_RGB, GL_UNSIGNED_BYTE),
+	/**
+	 * 16 bits per pixel, red in the high bits of a native order short. Transferred as GL_RGB/GL_UNSIGNED_SHORT_5_6_5.
+	 * Uploaded to a GL_RGB565 texture with OpenGL 4.1 or ARB_ES2_compatibility, GL_RGB5 otherwise.
+	 */
+	RGB565(2, GL_RGB565, GL_RGB, GL_UNSIGNED_SHORT_5_6_5),
+	/** 16 bits per pixel, alpha in the high bits of a native order short. Transferred as GL_BGRA/GL_UNSIGNED_SHORT_4_4_4_4_REV. */
+	RGBA4444(2, GL_RGBA4, GL_BGRA, GL_UNSIGNED_SHORT_4_4_4_4_REV),
+	/** 8 bits per pixel, the red channel only. Transferred as GL_RED/GL_UNSIGNED_BYTE. Requires OpenGL 3.0 or ARB_texture_rg. */
+	R8(1, GL_R8, GL_RED, GL_UNSIGNED_BYTE),
+	/**
+	 * Planar YUV 4:2:0, BT.601 limited range. A full resolution Y plane followed by the U and V planes, subsampled by two
+	 * in each direction. The chroma rows are half the stride of the luma rows. 1.5 bytes per pixel.
+	 */
+	YUV420(1, GL_R8, GL_RED, GL_UNSIGNED_BYTE),
+	/** The Y plane of {@link #YUV420} only, for consumers that need luma. */
+	Y8(1, GL_R8, GL_RED, GL_UNSIGNED_BYTE);
+
+	private final int bytesPerPixel;
+
+	private final int internalFormat;
+	private final int transferFormat;
+	private final int transferType;
+
+	StreamFormat(final int bytesPerPixel, final int internalFormat, final int transferFormat, final int transferType) {
+		this.bytesPerPixel = bytesPerPixel;
+
+		this.internalFormat = internalFormat;
+		this.transferFormat = transferFormat;
+		this.transferType = transferType;
+	}
+
+	/** Returns the size of a pixel in the first plane, in bytes. */
+	public int getBytesPerPixel() {
+		return bytesPerPixel;
+	}
+
+	public int getPlaneCount() {
+		return this == YUV420 ? 3 : 1;
+	}
+
+	/** Returns true if this format is converted from RGB with a shader. */
+	public boolean isYUV() {
+		return this == YUV420 || this == Y8;
+	}
+
+	/** Returns true if the color channels of this format are multiplied by alpha. */
+	public boolean isPremultiplied() {
+		return this == BGRA8_PRE || this == ARGB8_PRE;
+	}
+
+	/**
+	 * Returns true if this format is supported by the specified context. The premultiplied and YUV formats also require
+	 * OpenGL 2.0, the premultiplied formats framebuffer blits too.
+	 */
+	public boolean isSupported(final ContextCapabilities caps) {
+		if ( this == BGRA8 || this == RGB8 || this == RGB565 || this == RGBA4444 )
+			return true;
+
+		if ( isPremultiplied() ) // The frame is copied to a separate target with a blit before the premultiplication
+			return caps.OpenGL20 && (caps.OpenGL30 || caps.GL_EXT_framebuffer_blit);
+
+		return (caps.OpenGL30 || caps.GL_ARB_texture_rg) && (!isYUV() || caps.OpenGL20);
+	}
+
+	/** Returns true if texture streams can upload this format. The premultiplied formats are uploaded without conversion. */
+	boolean isUploadSupported(final ContextCapabilities caps) {
+		return !isYUV() && (isPremultiplied() || isSupported(caps));
+	}
+
+	/** Returns the number of stride-wide rows a frame of the specified height occupies. */
+	int getRows(final int height) {
+		return this == YUV420 ? height + 2 * getChromaRows(height) : height;
+	}
+
+	/** Returns the number of stride-wide rows a chroma plane occupies. Two chroma rows fit in one. */
+	static int getChromaRows(final int height) {
+		return ((height + 1) / 2 + 1) / 2;
+	}
+
+	int getInternalFormat(final ContextCapabilities caps) {
+		// Desktop GL has no GL_RGB565 internal format before 4.1, GL_RGB5 is the closest one
+		if ( internalFormat == GL_RGB565 && !(caps.OpenGL41 || caps.GL_ARB_ES2_compatibility) )
+			return GL_RGB5;
+
+		return internalFormat;
+	}
+
+	int getTransferFormat() {
+		return transferFormat;
+	}
+
+	int getTransferType() {
+		return transferType;
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Describes a buffer passed to {@link StreamFrameHandler#process}. Streams pool instances, one per buffer, and reuse them
+ * for every hand-off of the same buffer. A frame is only valid until it is released and must not be retained after that.
+ */
+public final class StreamFrame {
+
+	private final StreamSignal signal;
+	private final int          slot;
+
+	private long              index;
+	private long              captureTime;
+	private Object            metadata;
+	private StreamOrientation orientation;
+
+	private StreamFormat format;
+
+	private int        width;
+	private int        height;
+	private int        stride;
+	private ByteBuffer data;
+
+	private DirtyRegion dirtyRegion;
+
+	private boolean persistent;
+
+	StreamFrame(final StreamSignal signal, final int slot) {
+		this.signal = signal;
+		this.slot = slot;
+	}
+
+	/**
+	 * Creates a frame that describes a buffer passed to {@link StreamHandler#process(int, int, ByteBuffer, int, StreamSignal)},
+	 * so that frame handlers can process such buffers with the same code. Those buffers are {@link StreamFormat#BGRA8} and
+	 * {@link StreamOrientation#BOTTOM_UP}, the dirty region of the frame covers the whole buffer. The frame is in the slot
+	 * of the signal's buffer and releasing it releases the signal.
+	 */
+	public StreamFrame(final int width, final int height, final ByteBuffer data, final int stride, final StreamSignal signal) {
+		this(signal, signal.getIndex());
+
+		final DirtyRegion region = new DirtyRegion();
+		region.setFull(width, height);
+
+		capture(signal.sequence, System.nanoTime(), null, StreamOrientation.BOTTOM_UP);
+		set(StreamFormat.BGRA8, width, height, stride, data, region, false);
+	}
+
+	void capture(final long index, final long captureTime, final Object metadata, final StreamOrientation orientation) {
+		this.index = index;
+		this.captureTime = captureTime;
+		this.metadata = metadata;
+		this.orientation = orientation;
+	}
+
+	void copyCapture(final StreamFrame frame) {
+		capture(frame.index, frame.captureTime, frame.metadata, frame.orientation);
+	}
+
+	void set(
+		final StreamFormat format, final int width, final int height, final int stride, final ByteBuffer data, final DirtyRegion dirtyRegion,
+		final boolean persistent
+	) {
+		this.format = format;
+		this.width = width;
+		this.height = height;
+		this.stride = stride;
+		this.data = data;
+		this.dirtyRegion = dirtyRegion;
+		this.persistent = persistent;
+	}
+
+	/** Returns the index of the frame. Indices increase by one for every frame the stream captures, a gap means frames were skipped. */
+	public long getIndex() {
+		return index;
+	}
+
+	/** Returns the {@link System#nanoTime()} at which the frame was captured. */
+	public long getCaptureTime() {
+		return captureTime;
+	}
+
+	/** Returns the index of the stream buffer that holds the frame. */
+	public int getSlot() {
+		return slot;
+	}
+
+	public StreamFormat getFormat() {
+		return format;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getStride() {
+		return stride;
+	}
+
+	/**
+	 * Returns the offset of the specified plane in the frame data, in bytes. Plane 0 starts at 0. With {@link StreamFormat#YUV420},
+	 * planes 1 and 2 are U and V.
+	 */
+	public int getPlaneOffset(final int plane) {
+		checkPlane(plane);
+		return plane == 0 ? 0 : (height + (plane - 1) * StreamFormat.getChromaRows(height)) * stride;
+	}
+
+	/** Returns the row stride of the specified plane, in bytes. */
+	public int getPlaneStride(final int plane) {
+		checkPlane(plane);
+		return plane == 0 ? stride : stride / 2;
+	}
+
+	public int getPlaneWidth(final int plane) {
+		checkPlane(plane);
+		return plane == 0 ? width : (width + 1) / 2;
+	}
+
+	public int getPlaneHeight(final int plane) {
+		checkPlane(plane);
+		return plane == 0 ? height : (height + 1) / 2;
+	}
+
+	private void checkPlane(final int plane) {
+		if ( plane < 0 || format.getPlaneCount() <= plane )
+			throw new IllegalArgumentException("Invalid plane: " + plane);
+	}
+
+	public ByteBuffer getData() {
+		return data;
+	}
+
+	/**
+	 * Returns the order of the rows in the frame data, the orientation of the stream when the frame was captured. Handlers
+	 * of texture streams must write the rows in this order.
+	 */
+	public StreamOrientation getOrientation() {
+		return orientation;
+	}
+
+	/**
+	 * Returns true if the frame data stays valid after the frame has been released, until the stream is resized or
+	 * destroyed. That is the case for persistently mapped and pinned memory. The data is then overwritten by the stream
+	 * when it reuses the buffer. Otherwise, the buffer may be unmapped as soon as the frame is released.
+	 */
+	public boolean isPersistent() {
+		return persistent;
+	}
+
+	/**
+	 * Returns the region that changed since the previous frame sent to the handler. The rest of the buffer holds the same
+	 * pixels as that frame. Covers the whole buffer unless the stream tracks damage.
+	 */
+	public DirtyRegion getDirtyRegion() {
+		return dirtyRegion;
+	}
+
+	/**
+	 * Adds a region written by the handler. Used by texture streams with damage tracking enabled, only the dirty region
+	 * is uploaded. Overlapping rectangles are merged.
+	 */
+	public void addDamage(final int x, final int y, final int width, final int height) {
+		dirtyRegion.add(x, y, width, height, this.width, this.height);
+	}
+
+	/** Returns the metadata that was set on the stream when the frame was captured. */
+	public Object getMetadata() {
+		return metadata;
+	}
+
+	public StreamSignal getSignal() {
+		return signal;
+	}
+
+	/** Notifies the stream that the handler has finished processing. May be called from any thread. */
+	public void release() {
+		signal.release();
+	}
+
+}
\ No newline at end of file
@@ -32,7 +32,6 @@
 package org.lwjgl.util.stream;
 
 import java.nio.ByteBuffer;
-import java.util.concurrent.Semaphore;
 
 /** @author Spasi */
 public interface StreamHandler {
@@ -41,6 +40,7 @@ public interface StreamHandler {
 
 	int getHeight();
 
-	void process(final int width, final int height, ByteBuffer data, final int stride, Semaphore signal);
+	/** Processes the buffer. The handler must call {@link StreamSignal#release()} once, when it has finished processing. */
+	void process(final int width, final int height, ByteBuffer data, final int stride, StreamSignal signal);
 
 }
\ No newline at end of file
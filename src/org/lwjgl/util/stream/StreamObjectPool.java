@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GLContext;
+import org.lwjgl.util.stream.StreamUtil.FBOUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * A pool of the textures, renderbuffers and buffer objects used by the streams of a GL context. Objects are keyed by
+ * their dimensions, sample count, internal format and usage. Buffer objects of up to twice the requested size are
+ * reused too. Deleted objects are kept for reuse, so recreating or resizing a stream does not have to go through the
+ * driver allocator. Recycled textures get the sampling state of new ones. Idle objects are evicted in least-recently-used
+ * order when their total size exceeds the pool budget.
+ * <p/>
+ * There is one pool per context, returned by {@link StreamUtil#getObjectPool()}. A pool must only be used on the thread
+ * its context is current in. The statistics may be read from any thread.
+ */
+public final class StreamObjectPool {
+
+	/** The default budget of idle objects, in bytes. */
+	public static final long DEFAULT_BUDGET = 64L * 1024L * 1024L;
+
+	private static final int TEXTURE      = 0;
+	private static final int RENDERBUFFER = 1;
+	private static final int BUFFER       = 2;
+
+	private static final Map<ContextCapabilities, StreamObjectPool> pools = new WeakHashMap<ContextCapabilities, StreamObjectPool>();
+
+	private final Map<Integer, Entry> live = new HashMap<Integer, Entry>();
+	private final List<Entry>         idle = new ArrayList<Entry>(); // Least recently used first
+
+	private final boolean textureSwizzle;
+
+	private long budget = DEFAULT_BUDGET;
+
+	private volatile long hits;
+	private volatile long misses;
+	private volatile long liveBytes;
+	private volatile long idleBytes;
+
+	private StreamObjectPool(final ContextCapabilities caps) {
+		textureSwizzle = caps.OpenGL33 || caps.GL_ARB_texture_swizzle || caps.GL_EXT_texture_swizzle;
+	}
+
+	static StreamObjectPool get() {
+		final ContextCapabilities caps = GLContext.getCapabilities();
+
+		synchronized ( pools ) {
+			StreamObjectPool pool = pools.get(caps);
+			if ( pool == null )
+				pools.put(caps, pool = new StreamObjectPool(caps));
+			return pool;
+		}
+	}
+
+	/** Returns the number of objects that were recycled from the pool. */
+	public long getHits() {
+		return hits;
+	}
+
+	/** Returns the number of objects that had to be allocated. */
+	public long getMisses() {
+		return misses;
+	}
+
+	/** Returns the size of all objects allocated through the pool and not evicted yet, in bytes. */
+	public long getResidentBytes() {
+		return liveBytes + idleBytes;
+	}
+
+	/** Returns the size of the objects that are waiting to be reused, in bytes. */
+	public long getIdleBytes() {
+		return idleBytes;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Sets the maximum size of the objects kept for reuse, in bytes. Objects in use are not limited. A budget of 0
+	 * disables pooling.
+	 *
+	 * @param budget the budget, in bytes
+	 */
+	public void setBudget(final long budget) {
+		if ( budget < 0L )
+			throw new IllegalArgumentException("Invalid budget: " + budget);
+
+		this.budget = budget;
+		evict();
+	}
+
+	/** Deletes all idle objects. Must be called on the thread the pool's context is current in. */
+	public void clear() {
+		for ( int i = 0; i < idle.size(); i++ )
+			delete(idle.get(i));
+		idle.clear();
+
+		idleBytes = 0L;
+	}
+
+	public String toString() {
+		return "hits: " + hits
+		       + ", misses: " + misses
+		       + ", resident: " + (getResidentBytes() >> 10) + "KB"
+		       + ", idle: " + (idleBytes >> 10) + "KB/" + (budget >> 10) + "KB";
+	}
+
+	/** Returns an RGBA8 texture with the specified filter and the default wrap modes and swizzle. Leaves nothing bound. */
+	int createTexture(final int width, final int height, final int filter) {
+		Entry entry = acquire(TEXTURE, width, height, 1, GL_RGBA8, 0);
+		if ( entry == null ) {
+			entry = allocate(TEXTURE, width, height, 1, GL_RGBA8, 0, width * (long)height * 4L);
+			entry.id = glGenTextures();
+
+			glBindTexture(GL_TEXTURE_2D, entry.id);
+			glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, (ByteBuffer)null);
+		} else {
+			glBindTexture(GL_TEXTURE_2D, entry.id);
+
+			// Undo any state the previous owner has set
+			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
+			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
+			if ( textureSwizzle ) {
+				glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_SWIZZLE_R, GL_RED);
+				glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_SWIZZLE_G, GL_GREEN);
+				glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_SWIZZLE_B, GL_BLUE);
+				glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_SWIZZLE_A, GL_ALPHA);
+			}
+		}
+
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, filter);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, filter);
+		glBindTexture(GL_TEXTURE_2D, 0);
+
+		return register(entry);
+	}
+
+	int createRenderbuffer(final FBOUtil fboUtil, final int width, final int height, final int samples, final int internalformat) {
+		Entry entry = acquire(RENDERBUFFER, width, height, samples, internalformat, 0);
+		if ( entry == null ) {
+			// The formats used by the streams are 4 bytes per sample, except for the R8 target of the YUV conversion.
+			final long bytesPerSample = internalformat == GL_R8 ? 1L : 4L;
+			entry = allocate(RENDERBUFFER, width, height, samples, internalformat, 0, width * (long)height * bytesPerSample * Math.max(samples, 1));
+			entry.id = fboUtil.genRenderbuffers();
+			entry.fboUtil = fboUtil;
+
+			fboUtil.bindRenderbuffer(GL_RENDERBUFFER, entry.id);
+			if ( samples <= 1 )
+				fboUtil.renderbufferStorage(GL_RENDERBUFFER, internalformat, width, height);
+			else
+				fboUtil.renderbufferStorageMultisample(GL_RENDERBUFFER, samples, internalformat, width, height);
+			fboUtil.bindRenderbuffer(GL_RENDERBUFFER, 0);
+		}
+
+		return register(entry);
+	}
+
+	/**
+	 * Returns a buffer object with at least <code>size</code> bytes of storage, and at most twice that. Leaves it bound to
+	 * <code>target</code>.
+	 */
+	int createBuffer(final int target, final int size, final int usage) {
+		Entry entry = acquire(BUFFER, size, 1, 1, 0, usage);
+		if ( entry == null ) {
+			entry = allocate(BUFFER, size, 1, 1, 0, usage, size);
+			entry.id = glGenBuffers();
+
+			glBindBuffer(target, entry.id);
+			glBufferData(target, size, usage);
+		} else
+			glBindBuffer(target, entry.id);
+
+		return register(entry);
+	}
+
+	/** Returns the storage size of a buffer object returned by {@link #createBuffer}, in bytes. */
+	int getBufferSize(final int buffer) {
+		return live.get(buffer).width;
+	}
+
+	void deleteTexture(final int texture) {
+		if ( !release(texture) )
+			glDeleteTextures(texture);
+	}
+
+	void deleteRenderbuffer(final FBOUtil fboUtil, final int renderbuffer) {
+		if ( !release(renderbuffer) )
+			fboUtil.deleteRenderbuffers(renderbuffer);
+	}
+
+	void deleteBuffer(final int buffer) {
+		if ( !release(buffer) )
+			glDeleteBuffers(buffer);
+	}
+
+	private Entry acquire(final int type, final int width, final int height, final int samples, final int format, final int usage) {
+		// Most recently used first, it is the most likely to be resident.
+		for ( int i = idle.size() - 1; 0 <= i; i-- ) {
+			final Entry entry = idle.get(i);
+			if ( entry.matches(type, width, height, samples, format, usage) ) {
+				idle.remove(i);
+				idleBytes -= entry.bytes;
+				hits++;
+				return entry;
+			}
+		}
+
+		return null;
+	}
+
+	private Entry allocate(final int type, final int width, final int height, final int samples, final int format, final int usage, final long bytes) {
+		misses++;
+		return new Entry(type, width, height, samples, format, usage, bytes);
+	}
+
+	private int register(final Entry entry) {
+		live.put(entry.id, entry);
+		liveBytes += entry.bytes;
+		return entry.id;
+	}
+
+	/** Returns false if the object was not allocated by this pool. */
+	private boolean release(final int id) {
+		if ( id == 0 )
+			return true;
+
+		final Entry entry = live.remove(id);
+		if ( entry == null )
+			return false;
+
+		liveBytes -= entry.bytes;
+
+		idle.add(entry);
+		idleBytes += entry.bytes;
+
+		evict();
+		return true;
+	}
+
+	private void evict() {
+		while ( budget < idleBytes ) {
+			final Entry entry = idle.remove(0);
+			idleBytes -= entry.bytes;
+			delete(entry);
+		}
+	}
+
+	private static void delete(final Entry entry) {
+		switch ( entry.type ) {
+			case TEXTURE:
+				glDeleteTextures(entry.id);
+				break;
+			case RENDERBUFFER:
+				entry.fboUtil.deleteRenderbuffers(entry.id);
+				break;
+			case BUFFER:
+				glDeleteBuffers(entry.id);
+				break;
+		}
+	}
+
+	private static final class Entry {
+
+		final int type;
+		final int width;
+		final int height;
+		final int samples;
+		final int format;
+		final int usage;
+
+		final long bytes;
+
+		int     id;
+		FBOUtil fboUtil;
+
+		Entry(final int type, final int width, final int height, final int samples, final int format, final int usage, final long bytes) {
+			this.type = type;
+			this.width = width;
+			this.height = height;
+			this.samples = samples;
+			this.format = format;
+			this.usage = usage;
+
+			this.bytes = bytes;
+		}
+
+		boolean matches(final int type, final int width, final int height, final int samples, final int format, final int usage) {
+			// The width of buffers is their size in bytes. A larger buffer can be reused, the stream only uses the first <width> bytes.
+			final boolean size = type == BUFFER
+			                     ? width <= this.width && this.width <= width * 2L
+			                     : this.width == width;
+
+			return this.type == type
+			       && size
+			       && this.height == height
+			       && this.samples == samples
+			       && this.format == format
+			       && this.usage == usage;
+		}
+
+	}
+
+}
\ No newline at end of file
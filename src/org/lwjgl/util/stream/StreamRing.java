@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free ownership tracking for the pinned buffers of a buffered stream.
+ * <p/>
+ * Every hand-off to the handler is tagged with a sequence number. The producer (the rendering thread) records the
+ * sequence it handed out per buffer, the consumer publishes the same sequence back when it releases the buffer.
+ * A buffer is free when the two match. The producer side is private to the rendering thread and uses plain fields,
+ * the consumer side is written with ordered stores only, so no monitor or AQS operations happen on either side.
+ */
+final class StreamRing {
+
+	// Spin, then yield, then park. Waiting should be rare, but when it happens it's usually short.
+	private static final int  SPIN_TRIES  = 100;
+	private static final int  YIELD_TRIES = 100;
+	private static final long PARK_NANOS  = 50L * 1000L;
+
+	// Keeps the consumer state of every buffer on its own cache line (8 longs = 64 bytes)
+	private static final int PADDING = 8;
+
+	private static final int SEQUENCE     = 0;
+	private static final int RELEASE_TIME = 1;
+
+	private final StreamSignal[] signals;
+
+	// Producer-side state, only accessed from the rendering thread.
+	private final long[]    handed;
+	private final long[]    handTimes;
+	private final boolean[] busy;
+
+	private long sequence;
+
+	// Consumer-side state, the last sequence released per buffer and when it was released.
+	private final AtomicLongArray released;
+
+	StreamRing(final int capacity) {
+		signals = new StreamSignal[capacity];
+		for ( int i = 0; i < capacity; i++ )
+			signals[i] = new StreamSignal(this, i);
+
+		handed = new long[capacity];
+		handTimes = new long[capacity];
+		busy = new boolean[capacity];
+
+		// Leading and trailing padding too, we don't want to share a line with the array header or other objects.
+		released = new AtomicLongArray((capacity + 2) * PADDING);
+	}
+
+	private static int offset(final int index) {
+		return (index + 1) * PADDING;
+	}
+
+	StreamSignal getSignal(final int index) {
+		return signals[index];
+	}
+
+	/** Returns true if the buffer at the specified index has been handed to the handler and has not been reclaimed yet. */
+	boolean isBusy(final int index) {
+		return busy[index];
+	}
+
+	/** Returns true if the handler has released the last hand-off of the buffer at the specified index. */
+	boolean isReleased(final int index) {
+		return released.get(offset(index) + SEQUENCE) == handed[index];
+	}
+
+	/** Returns the time it took the handler to release the last hand-off of the buffer at the specified index. Valid after it has been released. */
+	long getTurnaround(final int index) {
+		return released.get(offset(index) + RELEASE_TIME) - handTimes[index];
+	}
+
+	/**
+	 * Marks the buffer at the specified index as owned by the handler.
+	 *
+	 * @return the signal the handler must release when it has finished processing
+	 */
+	StreamSignal acquire(final int index) {
+		final StreamSignal signal = signals[index];
+
+		handed[index] = signal.sequence = ++sequence;
+		handTimes[index] = System.nanoTime();
+		busy[index] = true;
+
+		return signal;
+	}
+
+	/** Blocks until the handler has released the buffer at the specified index. */
+	void await(final int index) {
+		int tries = 0;
+		while ( !isReleased(index) ) {
+			if ( tries < SPIN_TRIES )
+				tries++;
+			else if ( tries < SPIN_TRIES + YIELD_TRIES ) {
+				tries++;
+				Thread.yield();
+			} else
+				LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+
+	/**
+	 * Waits up to <code>timeout</code> nanoseconds for the handler to release the buffer at the specified index. Does not
+	 * wait at all if <code>timeout</code> is 0.
+	 *
+	 * @return true if the buffer has been released
+	 */
+	boolean await(final int index, final long timeout) {
+		if ( isReleased(index) )
+			return true;
+
+		if ( timeout <= 0L )
+			return false;
+
+		final long deadline = System.nanoTime() + timeout;
+
+		int tries = 0;
+		while ( !isReleased(index) ) {
+			final long remaining = deadline - System.nanoTime();
+			if ( remaining <= 0L )
+				return false;
+
+			if ( tries < SPIN_TRIES )
+				tries++;
+			else if ( tries < SPIN_TRIES + YIELD_TRIES ) {
+				tries++;
+				Thread.yield();
+			} else
+				LockSupport.parkNanos(Math.min(remaining, PARK_NANOS));
+		}
+
+		return true;
+	}
+
+	/** Marks the buffer at the specified index as owned by the stream again. Must be called after it has been released. */
+	void reclaim(final int index) {
+		busy[index] = false;
+	}
+
+	/** Called from the consumer thread. */
+	void release(final int index, final long sequence) {
+		// Ordered stores, the time is visible when the sequence is.
+		released.lazySet(offset(index) + RELEASE_TIME, System.nanoTime());
+		released.lazySet(offset(index) + SEQUENCE, sequence);
+	}
+
+}
\ No newline at end of file
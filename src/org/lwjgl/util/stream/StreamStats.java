@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-stage timing statistics of a {@link RenderStream} or {@link TextureStream}. Enabled by passing an instance to the
+ * stream's <code>setStats</code> method.
+ * <p/>
+ * Every stage is recorded in a log-linear histogram with 16 sub-buckets per power of two, which keeps the relative error
+ * of any percentile below 1/16. Recording does not allocate and does not lock. It happens on the thread that uses the
+ * stream, so an instance must not be shared by streams used on different threads. Snapshots may be taken from any thread.
+ */
+public final class StreamStats {
+
+	/** The stages of a frame. Times are in nanoseconds. */
+	public enum Stage {
+		/** The MSAA resolve before a read-back. GPU time if timer queries are supported, CPU time otherwise. */
+		RESOLVE,
+		/** The transfer of a frame to a read-back buffer. GPU time if timer queries are supported, CPU time otherwise. */
+		READBACK,
+		/** The time spent waiting for a buffer to become available to the CPU, glMapBuffer or a fence wait. */
+		MAP_WAIT,
+		/** The time between handing a buffer to the handler and the handler releasing it. */
+		HANDLER,
+		/** The texture upload from a buffer. GPU time if timer queries are supported, CPU time otherwise. */
+		UPLOAD,
+		/** The reallocation of the stream objects after a size change. CPU time. */
+		RESIZE
+	}
+
+	static final Stage[] STAGES = Stage.values();
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+
+	// Values are clamped to 2^37 - 1 ns, a bit over 2 minutes.
+	private static final int  MAX_EXPONENT = 36;
+	private static final long MAX_VALUE    = (1L << (MAX_EXPONENT + 1)) - 1L;
+
+	static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	// Per-stage totals
+	private static final int SUM    = 0;
+	private static final int MIN    = 1;
+	private static final int MAX    = 2;
+	private static final int TOTALS = 3;
+
+	// Counters
+	private static final int FRAMES             = 0;
+	private static final int DROPPED_FRAMES     = 1;
+	private static final int RESIZES            = 2;
+	private static final int SYNCHRONOUS_FRAMES = 3;
+	private static final int RESIZE_REQUESTS    = 4;
+	private static final int COUNTERS           = 5;
+
+	/*
+	Only the stream thread writes, so there's no need for atomic read-modify-write operations. Values are
+	published with ordered stores and a snapshot may observe some of a stage's fields one sample ahead of
+	the others, which is irrelevant for statistics.
+	*/
+
+	private final AtomicLongArray histograms;
+	private final AtomicLongArray totals;
+	private final AtomicLongArray counters;
+
+	public StreamStats() {
+		histograms = new AtomicLongArray(STAGES.length * BUCKETS);
+		totals = new AtomicLongArray(STAGES.length * TOTALS);
+		counters = new AtomicLongArray(COUNTERS);
+
+		for ( int i = 0; i < STAGES.length; i++ )
+			totals.set(i * TOTALS + MIN, Long.MAX_VALUE);
+	}
+
+	/** Returns the histogram bucket of the specified value. */
+	static int getBucket(final long value) {
+		if ( value < SUB_BUCKETS )
+			return (int)value;
+
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/** Returns the lowest value that maps to the specified histogram bucket. */
+	static long getLowestValue(final int bucket) {
+		if ( bucket < SUB_BUCKETS )
+			return bucket;
+
+		final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		return (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	/** Returns the highest value that maps to the specified histogram bucket. */
+	static long getHighestValue(final int bucket) {
+		return bucket == BUCKETS - 1 ? MAX_VALUE : getLowestValue(bucket + 1) - 1L;
+	}
+
+	private static void increment(final AtomicLongArray array, final int index, final long delta) {
+		array.lazySet(index, array.get(index) + delta);
+	}
+
+	void record(final Stage stage, final long nanos) {
+		// Clamp, System.nanoTime() is not guaranteed to be monotonic across cores on some systems
+		final long value = nanos < 0L ? 0L : Math.min(nanos, MAX_VALUE);
+
+		final int offset = stage.ordinal() * TOTALS;
+
+		increment(totals, offset + SUM, value);
+		if ( value < totals.get(offset + MIN) )
+			totals.lazySet(offset + MIN, value);
+		if ( totals.get(offset + MAX) < value )
+			totals.lazySet(offset + MAX, value);
+
+		// Last, so that a snapshot never counts a sample without its sum
+		increment(histograms, stage.ordinal() * BUCKETS + getBucket(value), 1L);
+	}
+
+	void countFrame() {
+		increment(counters, FRAMES, 1L);
+	}
+
+	void countDroppedFrame() {
+		increment(counters, DROPPED_FRAMES, 1L);
+	}
+
+	void countResize() {
+		increment(counters, RESIZES, 1L);
+	}
+
+	void countSynchronousFrame() {
+		increment(counters, SYNCHRONOUS_FRAMES, 1L);
+	}
+
+	void countResizeRequest() {
+		increment(counters, RESIZE_REQUESTS, 1L);
+	}
+
+	/** Returns a new snapshot of the current statistics. */
+	public Snapshot snapshot() {
+		final Snapshot snapshot = new Snapshot();
+		snapshot(snapshot);
+		return snapshot;
+	}
+
+	/** Copies the current statistics to the specified snapshot. Use this to poll without allocating. */
+	public void snapshot(final Snapshot snapshot) {
+		snapshot.time = System.nanoTime();
+
+		for ( int i = 0; i < COUNTERS; i++ )
+			snapshot.counters[i] = counters.get(i);
+
+		for ( int i = 0; i < STAGES.length; i++ ) {
+			long count = 0L;
+			for ( int b = 0; b < BUCKETS; b++ ) {
+				final long value = histograms.get(i * BUCKETS + b);
+				snapshot.histograms[i * BUCKETS + b] = value;
+				count += value;
+			}
+			snapshot.counts[i] = count;
+
+			for ( int t = 0; t < TOTALS; t++ )
+				snapshot.totals[i * TOTALS + t] = totals.get(i * TOTALS + t);
+		}
+	}
+
+	/** An immutable copy of the statistics at some point in time, unless passed to {@link StreamStats#snapshot(Snapshot)} again. */
+	public static final class Snapshot {
+
+		private final long[] histograms = new long[STAGES.length * BUCKETS];
+		private final long[] totals     = new long[STAGES.length * TOTALS];
+		private final long[] counts     = new long[STAGES.length];
+		private final long[] counters   = new long[COUNTERS];
+
+		private long time;
+
+		public Snapshot() {
+		}
+
+		/** Returns the {@link System#nanoTime()} at which the snapshot was taken. Use it to turn the counters of two snapshots into rates. */
+		public long getTime() {
+			return time;
+		}
+
+		/** Returns the number of frames sent to the handler. */
+		public long getFrames() {
+			return counters[FRAMES];
+		}
+
+		/** Returns the number of frames that were not sent to the handler because of the back-pressure policy. */
+		public long getDroppedFrames() {
+			return counters[DROPPED_FRAMES];
+		}
+
+		/** Returns the number of times the stream buffers were resized. */
+		public long getResizes() {
+			return counters[RESIZES];
+		}
+
+		/**
+		 * Returns the number of distinct dimensions the handler requested. This is greater than the number of resizes
+		 * when the stream coalesces size changes.
+		 */
+		public long getResizeRequests() {
+			return counters[RESIZE_REQUESTS];
+		}
+
+		/** Returns an estimate of the time saved by coalescing size changes, in nanoseconds: the requests that did not cause a resize, at the mean resize time. */
+		public long getResizeTimeSaved() {
+			return Math.max(getResizeRequests() - getResizes(), 0L) * getMean(Stage.RESIZE);
+		}
+
+		/** Returns the number of frames that had to be read back synchronously, after start-up or a resize. */
+		public long getSynchronousFrames() {
+			return counters[SYNCHRONOUS_FRAMES];
+		}
+
+		/** Returns the number of samples recorded for the specified stage. */
+		public long getCount(final Stage stage) {
+			return counts[stage.ordinal()];
+		}
+
+		/** Returns the mean of the specified stage, in nanoseconds, or 0 if there are no samples. */
+		public long getMean(final Stage stage) {
+			final long count = counts[stage.ordinal()];
+			return count == 0L ? 0L : totals[stage.ordinal() * TOTALS + SUM] / count;
+		}
+
+		/** Returns the minimum of the specified stage, in nanoseconds, or 0 if there are no samples. */
+		public long getMin(final Stage stage) {
+			return counts[stage.ordinal()] == 0L ? 0L : totals[stage.ordinal() * TOTALS + MIN];
+		}
+
+		/** Returns the maximum of the specified stage, in nanoseconds, or 0 if there are no samples. */
+		public long getMax(final Stage stage) {
+			return counts[stage.ordinal()] == 0L ? 0L : totals[stage.ordinal() * TOTALS + MAX];
+		}
+
+		/**
+		 * Returns the value at the specified percentile of the specified stage, in nanoseconds, or 0 if there are no samples.
+		 * The result is the highest value of the histogram bucket the percentile falls in, capped to the maximum.
+		 *
+		 * @param percentile the percentile, between 0.0 and 100.0
+		 */
+		public long getPercentile(final Stage stage, final double percentile) {
+			if ( percentile < 0.0 || 100.0 < percentile )
+				throw new IllegalArgumentException("Invalid percentile: " + percentile);
+
+			final int s = stage.ordinal();
+
+			final long count = counts[s];
+			if ( count == 0L )
+				return 0L;
+
+			final long rank = Math.max(1L, (long)Math.ceil(percentile / 100.0 * count));
+
+			long total = 0L;
+			for ( int b = 0; b < BUCKETS; b++ ) {
+				total += histograms[s * BUCKETS + b];
+				if ( rank <= total )
+					return Math.min(getHighestValue(b), getMax(stage));
+			}
+
+			return getMax(stage);
+		}
+
+		public String toString() {
+			final StringBuilder sb = new StringBuilder(512);
+
+			sb.append("frames: ").append(getFrames())
+				.append(", dropped: ").append(getDroppedFrames())
+				.append(", resizes: ").append(getResizes()).append('/').append(getResizeRequests())
+				.append(", synchronous: ").append(getSynchronousFrames());
+
+			for ( Stage stage : STAGES ) {
+				if ( getCount(stage) == 0L )
+					continue;
+
+				sb.append('\n').append(stage)
+					.append(": count ").append(getCount(stage))
+					.append(", mean ").append(getMean(stage) / 1000L)
+					.append("us, p50 ").append(getPercentile(stage, 50.0) / 1000L)
+					.append("us, p99 ").append(getPercentile(stage, 99.0) / 1000L)
+					.append("us, max ").append(getMax(stage) / 1000L).append("us");
+			}
+
+			return sb.toString();
+		}
+
+	}
+
+}
\ No newline at end of file
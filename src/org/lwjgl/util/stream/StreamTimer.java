@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GLContext;
+import org.lwjgl.util.stream.StreamStats.Stage;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Measures the stages of a buffered stream, per buffer. GPU stages use GL_TIME_ELAPSED queries, which are collected
+ * after the buffer has been synchronized, when the results are available without stalling. Results that are not
+ * available yet are skipped. If timer queries are not supported, the CPU time of the calling thread is used instead.
+ */
+final class StreamTimer {
+
+	private static final int STAGES = StreamStats.STAGES.length;
+
+	private final boolean timerQuery;
+
+	private final int[]     queries;
+	private final long[]    times;
+	private final boolean[] pending;
+
+	private long startTime;
+
+	StreamTimer(final int capacity) {
+		final ContextCapabilities caps = GLContext.getCapabilities();
+
+		timerQuery = caps.OpenGL33 || caps.GL_ARB_timer_query;
+
+		queries = new int[capacity * STAGES];
+		times = new long[capacity * STAGES];
+		pending = new boolean[capacity * STAGES];
+	}
+
+	void begin(final int index, final Stage stage) {
+		if ( timerQuery ) {
+			final int q = index * STAGES + stage.ordinal();
+			if ( queries[q] == 0 )
+				queries[q] = glGenQueries();
+
+			glBeginQuery(GL_TIME_ELAPSED, queries[q]);
+		} else
+			startTime = System.nanoTime();
+	}
+
+	void end(final int index, final Stage stage) {
+		final int q = index * STAGES + stage.ordinal();
+
+		if ( timerQuery )
+			glEndQuery(GL_TIME_ELAPSED);
+		else
+			times[q] = System.nanoTime() - startTime;
+
+		pending[q] = true;
+	}
+
+	/** Records the measured stages of the buffer at the specified index. */
+	void collect(final int index, final StreamStats stats) {
+		for ( Stage stage : StreamStats.STAGES ) {
+			final int q = index * STAGES + stage.ordinal();
+			if ( !pending[q] )
+				continue;
+
+			if ( timerQuery ) {
+				if ( glGetQueryObjecti(queries[q], GL_QUERY_RESULT_AVAILABLE) == GL_FALSE )
+					continue;
+
+				times[q] = glGetQueryObjectui64(queries[q], GL_QUERY_RESULT);
+			}
+
+			stats.record(stage, times[q]);
+			pending[q] = false;
+		}
+	}
+
+	void destroy() {
+		for ( int i = 0; i < queries.length; i++ ) {
+			if ( queries[i] != 0 ) {
+				glDeleteQueries(queries[i]);
+				queries[i] = 0;
+			}
+		}
+	}
+
+}
\ No newline at end of file
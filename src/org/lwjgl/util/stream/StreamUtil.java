@@ -37,7 +37,6 @@ import org.lwjgl.opengl.GLSync;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -65,15 +64,11 @@ public final class StreamUtil {
 	}
 
 	static int createRenderTexture(final int width, final int height, final int filter) {
-		final int texID = glGenTextures();
-
-		glBindTexture(GL_TEXTURE_2D, texID);
-		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, filter);
-		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, filter);
-		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, (ByteBuffer)null);
-		glBindTexture(GL_TEXTURE_2D, 0);
+		return StreamObjectPool.get().createTexture(width, height, filter);
+	}
 
-		return texID;
+	static void deleteRenderTexture(final int texID) {
+		StreamObjectPool.get().deleteTexture(texID);
 	}
 
 	static int createRenderBuffer(final FBOUtil fboUtil, final int width, final int height, final int internalformat) {
@@ -81,16 +76,34 @@ public final class StreamUtil {
 	}
 
 	static int createRenderBuffer(final FBOUtil fboUtil, final int width, final int height, final int samples, final int internalformat) {
-		final int bufferID = fboUtil.genRenderbuffers();
+		return StreamObjectPool.get().createRenderbuffer(fboUtil, width, height, samples, internalformat);
+	}
 
-		fboUtil.bindRenderbuffer(GL_RENDERBUFFER, bufferID);
-		if ( samples <= 1 )
-			fboUtil.renderbufferStorage(GL_RENDERBUFFER, internalformat, width, height);
-		else
-			fboUtil.renderbufferStorageMultisample(GL_RENDERBUFFER, samples, internalformat, width, height);
-		fboUtil.bindRenderbuffer(GL_RENDERBUFFER, 0);
+	static void deleteRenderBuffer(final FBOUtil fboUtil, final int bufferID) {
+		StreamObjectPool.get().deleteRenderbuffer(fboUtil, bufferID);
+	}
+
+	/** Returns a PBO with storage for at least <code>size</code> bytes. Leaves it bound to <code>target</code>. */
+	static int createBuffer(final int target, final int size, final int usage) {
+		return StreamObjectPool.get().createBuffer(target, size, usage);
+	}
+
+	/** Returns the size of the storage of a PBO returned by {@link #createBuffer}, in bytes. */
+	static int getBufferSize(final int bufferID) {
+		return StreamObjectPool.get().getBufferSize(bufferID);
+	}
 
-		return bufferID;
+	static void deleteBuffer(final int bufferID) {
+		StreamObjectPool.get().deleteBuffer(bufferID);
+	}
+
+	/**
+	 * Returns the pool that recycles the GL objects of the streams created in the current context.
+	 *
+	 * @return the object pool of the current context
+	 */
+	public static StreamObjectPool getObjectPool() {
+		return StreamObjectPool.get();
 	}
 
 	static void waitOnFence(final GLSync[] fences, final int index) {
@@ -99,6 +112,23 @@ public final class StreamUtil {
 		fences[index] = null;
 	}
 
+	/**
+	 * Checks the fence at the specified index without blocking. The fence is deleted if it has been signalled.
+	 *
+	 * @return true if there is no fence or it has been signalled
+	 */
+	static boolean pollFence(final GLSync[] fences, final int index) {
+		if ( fences[index] == null )
+			return true;
+
+		if ( glClientWaitSync(fences[index], 0, 0L) == GL_TIMEOUT_EXPIRED )
+			return false;
+
+		glDeleteSync(fences[index]);
+		fences[index] = null;
+		return true;
+	}
+
 	static boolean isAMD(final ContextCapabilities caps) {
 		return caps.GL_ATI_fragment_shader || caps.GL_ATI_texture_compression_3dc || caps.GL_AMD_debug_output;
 	}
@@ -108,27 +138,41 @@ public final class StreamUtil {
 	}
 
 	static int getStride(final int width) {
+		return getStride(width, StreamFormat.BGRA8);
+	}
+
+	static int getStride(final int width, final StreamFormat format) {
 		// Force a packed format on AMD. Their drivers show unstable
 		// performance if we mess with (UN)PACK_ROW_LENGTH.
+		// Smaller formats are padded to the default (UN)PACK_ALIGNMENT.
 		return isAMD(GLContext.getCapabilities()) ?
-		       width * 4 :
-		       getStride(width, TEX_ROW_ALIGNMENT);
+		       getStride(width, format, 4) :
+		       getStride(width, format, TEX_ROW_ALIGNMENT);
+	}
+
+	static int getStride(final int width, final int aligment) {
+		return getStride(width, StreamFormat.BGRA8, aligment);
 	}
 
 	/**
 	 * Aligns the row stride. This is beneficial for all the memcpy's we're doing (and also required for INTEL_map_texture).
 	 *
 	 * @param width    the row width in pixels
+	 * @param format   the pixel format
 	 * @param aligment the row aligment in bytes. Must be a power-of-two value.
 	 *
 	 * @return the aligned row stride
 	 */
-	static int getStride(final int width, final int aligment) {
-		int stride = width * 4;
+	static int getStride(final int width, final StreamFormat format, final int aligment) {
+		int stride = width * format.getBytesPerPixel();
 
 		if ( (stride & (aligment - 1)) != 0 )
 			stride += aligment - (stride & (aligment - 1));
 
+		// The (UN)PACK_ROW_LENGTH is in pixels, 3 byte formats need a stride that is also a multiple of 3
+		while ( stride % format.getBytesPerPixel() != 0 )
+			stride += aligment;
+
 		return stride;
 	}
 
@@ -152,6 +196,21 @@ public final class StreamUtil {
 		return list.get(0);
 	}
 
+	/** Returns the best RenderStreamFactory that supports the specified format. */
+	public static RenderStreamFactory getRenderStreamImplementation(final StreamFormat format) {
+		final List<RenderStreamFactory> list = getRenderStreamImplementations(format);
+
+		if ( list.isEmpty() )
+			throw new UnsupportedOperationException("A supported RenderStream implementation could not be found for format: " + format);
+
+		return list.get(0);
+	}
+
+	/** Returns the RenderStreamFactories that support the specified format, best first. */
+	public static List<RenderStreamFactory> getRenderStreamImplementations(final StreamFormat format) {
+		return filter(getRenderStreamImplementations(), format);
+	}
+
 	public static List<RenderStreamFactory> getRenderStreamImplementations() {
 		final ContextCapabilities caps = GLContext.getCapabilities();
 
@@ -160,6 +219,7 @@ public final class StreamUtil {
 		final List<RenderStreamFactory> list = new ArrayList<RenderStreamFactory>();
 
 		addIfSupported(caps, list, RenderStreamPBOAMD.FACTORY);
+		addIfSupported(caps, list, RenderStreamPBOPersistent.FACTORY);
 		addIfSupported(caps, list, RenderStreamPBOCopy.FACTORY);
 		addIfSupported(caps, list, RenderStreamINTEL.FACTORY);
 		addIfSupported(caps, list, RenderStreamPBODefault.FACTORY);
@@ -176,6 +236,21 @@ public final class StreamUtil {
 		return list.get(0);
 	}
 
+	/** Returns the best TextureStreamFactory that supports the specified format. */
+	public static TextureStreamFactory getTextureStreamImplementation(final StreamFormat format) {
+		final List<TextureStreamFactory> list = getTextureStreamImplementations(format);
+
+		if ( list.isEmpty() )
+			throw new UnsupportedOperationException("A supported TextureStream implementation could not be found for format: " + format);
+
+		return list.get(0);
+	}
+
+	/** Returns the TextureStreamFactories that support the specified format, best first. */
+	public static List<TextureStreamFactory> getTextureStreamImplementations(final StreamFormat format) {
+		return filter(getTextureStreamImplementations(), format);
+	}
+
 	public static List<TextureStreamFactory> getTextureStreamImplementations() {
 		final ContextCapabilities caps = GLContext.getCapabilities();
 
@@ -184,12 +259,24 @@ public final class StreamUtil {
 		final List<TextureStreamFactory> list = new ArrayList<TextureStreamFactory>();
 
 		addIfSupported(caps, list, TextureStreamINTEL.FACTORY);
+		addIfSupported(caps, list, TextureStreamPBOPersistent.FACTORY);
 		addIfSupported(caps, list, TextureStreamPBORange.FACTORY);
 		addIfSupported(caps, list, TextureStreamPBODefault.FACTORY);
 
 		return list;
 	}
 
+	private static <T extends StreamFactory<?>> List<T> filter(final List<T> list, final StreamFormat format) {
+		final ContextCapabilities caps = GLContext.getCapabilities();
+
+		for ( int i = list.size() - 1; 0 <= i; i-- ) {
+			if ( !list.get(i).isSupported(caps, format) )
+				list.remove(i);
+		}
+
+		return list;
+	}
+
 	private static <T extends StreamFactory<?>> void addIfSupported(final ContextCapabilities caps, final List<T> list, final T factory) {
 		if ( factory.isSupported(caps) )
 			list.add(factory);
@@ -209,6 +296,25 @@ public final class StreamUtil {
 
 		public abstract boolean isSupported(ContextCapabilities caps);
 
+		/** Returns true if streams of the specified format are supported. The default implementation supports {@link StreamFormat#BGRA8} only. */
+		public boolean isSupported(final ContextCapabilities caps, final StreamFormat format) {
+			return format == StreamFormat.BGRA8 && isSupported(caps);
+		}
+
+		/**
+		 * Returns the format of the streams created for the specified handler when no format is specified. This is the
+		 * preferred format of a {@link StreamFormatHandler}, if supported, {@link StreamFormat#BGRA8} otherwise.
+		 */
+		public StreamFormat getFormat(final StreamHandler handler) {
+			if ( handler instanceof StreamFormatHandler ) {
+				final StreamFormat format = ((StreamFormatHandler)handler).getPreferredFormat();
+				if ( format != null && isSupported(GLContext.getCapabilities(), format) )
+					return format;
+			}
+
+			return StreamFormat.BGRA8;
+		}
+
 		public String toString() {
 			return description;
 		}
@@ -221,8 +327,44 @@ public final class StreamUtil {
 			super(description);
 		}
 
+		/** Creates a stream that transfers frames in the format returned by {@link #getFormat(StreamHandler)}. */
 		public abstract RenderStream create(StreamHandler handler, int samples, int transfersToBuffer);
 
+		/**
+		 * Creates a stream that transfers frames in the specified format. The default implementation supports
+		 * {@link StreamFormat#BGRA8} only.
+		 *
+		 * @throws UnsupportedOperationException if the format is not supported
+		 */
+		public RenderStream create(final StreamHandler handler, final int samples, final int transfersToBuffer, final StreamFormat format) {
+			if ( format != StreamFormat.BGRA8 )
+				throw new UnsupportedOperationException("Unsupported format: " + format);
+
+			return create(handler, samples, transfersToBuffer);
+		}
+
+		/**
+		 * Creates a stream for a handler written for earlier versions of this package, wrapped in a
+		 * {@link SemaphoreStreamHandlerAdapter}.
+		 *
+		 * @deprecated implement {@link StreamHandler} instead
+		 */
+		@Deprecated
+		public RenderStream create(final SemaphoreStreamHandler handler, final int samples, final int transfersToBuffer) {
+			return create(new SemaphoreStreamHandlerAdapter(handler), samples, transfersToBuffer);
+		}
+
+		/**
+		 * Creates a stream of the specified format for a handler written for earlier versions of this package, wrapped in a
+		 * {@link SemaphoreStreamHandlerAdapter}.
+		 *
+		 * @deprecated implement {@link StreamHandler} instead
+		 */
+		@Deprecated
+		public RenderStream create(final SemaphoreStreamHandler handler, final int samples, final int transfersToBuffer, final StreamFormat format) {
+			return create(new SemaphoreStreamHandlerAdapter(handler), samples, transfersToBuffer, format);
+		}
+
 	}
 
 	public abstract static class TextureStreamFactory extends StreamFactory<TextureStream> {
@@ -231,8 +373,49 @@ public final class StreamUtil {
 			super(description);
 		}
 
+		/** Creates a stream that uploads frames in the format returned by {@link #getFormat(StreamHandler)}. */
 		public abstract TextureStream create(StreamHandler handler, int transfersToBuffer);
 
+		/**
+		 * Creates a stream that uploads frames in the specified format. The default implementation supports
+		 * {@link StreamFormat#BGRA8} only.
+		 *
+		 * @throws UnsupportedOperationException if the format is not supported
+		 */
+		public TextureStream create(final StreamHandler handler, final int transfersToBuffer, final StreamFormat format) {
+			if ( format != StreamFormat.BGRA8 )
+				throw new UnsupportedOperationException("Unsupported format: " + format);
+
+			return create(handler, transfersToBuffer);
+		}
+
+		/**
+		 * Creates a stream for a handler written for earlier versions of this package, wrapped in a
+		 * {@link SemaphoreStreamHandlerAdapter}.
+		 *
+		 * @deprecated implement {@link StreamHandler} instead
+		 */
+		@Deprecated
+		public TextureStream create(final SemaphoreStreamHandler handler, final int transfersToBuffer) {
+			return create(new SemaphoreStreamHandlerAdapter(handler), transfersToBuffer);
+		}
+
+		/**
+		 * Creates a stream of the specified format for a handler written for earlier versions of this package, wrapped in a
+		 * {@link SemaphoreStreamHandlerAdapter}.
+		 *
+		 * @deprecated implement {@link StreamHandler} instead
+		 */
+		@Deprecated
+		public TextureStream create(final SemaphoreStreamHandler handler, final int transfersToBuffer, final StreamFormat format) {
+			return create(new SemaphoreStreamHandlerAdapter(handler), transfersToBuffer, format);
+		}
+
+	}
+
+	/** Returns true if framebuffer blits are supported. */
+	static boolean isBlitSupported(final ContextCapabilities caps) {
+		return caps.OpenGL30 || caps.GL_ARB_framebuffer_object || caps.GL_EXT_framebuffer_blit;
 	}
 
 	static int checkSamples(final int samples, final ContextCapabilities caps) {
@@ -40,12 +40,85 @@ public interface TextureStream {
 
 	int getHeight();
 
-	void snapshot();
+	/**
+	 * Sends a buffer to the handler, which writes the next frame to it. Returns false if the snapshot was skipped, because
+	 * the stream has no size or the handler missed the upload deadline. A skipped snapshot should be retried later.
+	 */
+	boolean snapshot();
 
 	void tick();
 
 	void bind();
 
+	StreamOrientation getOrientation();
+
+	/**
+	 * Sets the order of the rows the handler writes. {@link StreamOrientation#TOP_DOWN} frames are uploaded to an
+	 * intermediate texture and flipped to the stream texture with a blit, so the texture is always bottom-up. Changing the
+	 * orientation waits for the handler and restarts the stream, like a resize. Implementations that cannot flip frames
+	 * always return BOTTOM_UP from {@link #getOrientation}.
+	 */
+	void setOrientation(StreamOrientation orientation);
+
+	Object getFrameMetadata();
+
+	/**
+	 * Sets an object that is attached to every frame captured from now on. Handlers that implement {@link StreamFrameHandler}
+	 * receive it with {@link StreamFrame#getMetadata()}.
+	 */
+	void setFrameMetadata(Object metadata);
+
+	boolean isDamageTracking();
+
+	/**
+	 * Enables or disables damage tracking. When enabled, a {@link StreamFrameHandler} reports the regions it writes with
+	 * {@link StreamFrame#addDamage} and only those are uploaded. The first frame after a resize arrives with a full
+	 * {@link StreamFrame#getDirtyRegion() dirty region} and must be written in full. When disabled, or with handlers that
+	 * do not implement StreamFrameHandler, every frame is uploaded in full.
+	 */
+	void setDamageTracking(boolean enabled);
+
+	TileChangeDetector getChangeDetector();
+
+	/**
+	 * Sets a detector that finds the regions that changed in each frame, for handlers that cannot report damage. The
+	 * stream maps its buffers for reading and writing while a detector is set, starting with the next frame.
+	 * Only the changed tiles are uploaded, plus any damage the handler reports. The frames are hashed on the rendering
+	 * thread, see {@link TileChangeDetector} for the cost. A null detector disables detection.
+	 */
+	void setChangeDetector(TileChangeDetector changeDetector);
+
+	long getUploadDeadline();
+
+	/**
+	 * Sets the time, in milliseconds, <code>tick</code> and <code>snapshot</code> may wait for the handler to finish
+	 * writing a buffer. If the handler misses the deadline, the texture keeps its previous contents and the upload is
+	 * retried on the next tick. A snapshot that would need the buffer is skipped and returns false. The default is 0, the stream never
+	 * waits on the handler.
+	 */
+	void setUploadDeadline(long millis);
+
+	/** Returns the number of snapshots that were skipped because the handler missed the upload deadline. May be called from any thread. */
+	long getDroppedFrames();
+
+	long getResizeSettleTime();
+
+	/**
+	 * Sets the time, in milliseconds, the handler dimensions must be stable before the stream reallocates. Until then the
+	 * frames follow the handler dimensions within the current allocations, frames that would not fit are clamped to them
+	 * and the handler must scale those. Long drags reallocate earlier, with some room to grow. Frames never exceed the
+	 * handler dimensions. The default is 0, the stream resizes immediately.
+	 */
+	void setResizeSettleTime(long millis);
+
+	StreamStats getStats();
+
+	/**
+	 * Enables per-stage timing statistics, recorded to the specified instance, or disables them if <code>stats</code> is null.
+	 * Must be called on the thread that uses the stream.
+	 */
+	void setStats(StreamStats stats);
+
 	void destroy();
 
 }
\ No newline at end of file
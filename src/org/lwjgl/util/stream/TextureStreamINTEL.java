@@ -34,6 +34,7 @@ package org.lwjgl.util.stream;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.ContextCapabilities;
 import org.lwjgl.opengl.GLContext;
+import org.lwjgl.util.stream.StreamStats.Stage;
 import org.lwjgl.util.stream.StreamUtil.TextureStreamFactory;
 
 import java.nio.ByteBuffer;
@@ -106,12 +107,15 @@ final class TextureStreamINTEL extends StreamBuffered implements TextureStream {
 		return height;
 	}
 
-	private void resize(final int width, final int height) {
+	protected void resize(final int width, final int height) {
 		if ( width < 0 || height < 0 )
 			throw new IllegalArgumentException("Invalid dimensions: " + width + " x " + height);
 
 		destroyObjects();
 
+		if ( stats != null )
+			stats.countResize();
+
 		this.width = width;
 		this.height = height;
 
@@ -120,10 +124,7 @@ final class TextureStreamINTEL extends StreamBuffered implements TextureStream {
 		if ( width == 0 || height == 0 )
 			return;
 
-		bufferIndex = 0;
-		currentIndex = 0;
-
-		resetTexture = true;
+		restart();
 
 		texID = StreamUtil.createRenderTexture(width, height, GL_LINEAR);
 
@@ -137,6 +138,34 @@ final class TextureStreamINTEL extends StreamBuffered implements TextureStream {
 		glBindTexture(GL_TEXTURE_2D, 0);
 	}
 
+	/** The linear textures are always allocated at the stream dimensions. */
+	protected boolean reusesCapacity() {
+		return false;
+	}
+
+	/** Discards the frames in flight, the next one is copied in full. */
+	private void restart() {
+		damage.reset(width, height);
+
+		bufferIndex = 0;
+		currentIndex = 0;
+
+		resetTexture = true;
+	}
+
+	public void setOrientation(final StreamOrientation orientation) {
+		if ( orientation == this.orientation )
+			return;
+
+		// The handler may be writing a frame in the previous orientation
+		releaseBuffers();
+
+		this.orientation = orientation;
+
+		if ( width != 0 && height != 0 )
+			restart();
+	}
+
 	private static int genLayoutLinearTexture(final int width, final int height) {
 		final int texID = glGenTextures();
 
@@ -149,62 +178,61 @@ final class TextureStreamINTEL extends StreamBuffered implements TextureStream {
 		return texID;
 	}
 
-	public void snapshot() {
-		if ( width != handler.getWidth() || height != handler.getHeight() )
-			resize(handler.getWidth(), handler.getHeight());
+	public boolean snapshot() {
+		checkSize();
 
 		if ( width == 0 || height == 0 )
-			return;
+			return false;
 
 		final int trgPBO = (int)(bufferIndex % transfersToBuffer);
 
-		// Back-pressure. Make sure we never buffer more than <transfersToBuffer> frames ahead.
+		// Back-pressure. Make sure we never buffer more than <transfersToBuffer> frames ahead. If the handler is still
+		// processing the oldest buffer, we don't wait past the deadline. The snapshot is skipped and the next one tries again.
 
-		if ( processingState.get(trgPBO) )
-			syncCopy(trgPBO);
+		if ( ring.isBusy(trgPBO) && !tryCopy(trgPBO) ) {
+			droppedFrames++;
+			if ( stats != null )
+				stats.countDroppedFrame();
+			return false;
+		}
 
-		pinnedBuffers[trgPBO] = glMapTexture2DINTEL(buffers[trgPBO], 0, height * stride, GL_MAP_WRITE_BIT, strideBuffer, layoutBuffer, pinnedBuffers[trgPBO]);
+		final long pinTime = stats == null ? 0L : System.nanoTime();
 
-		// Send the buffer for processing
+		final int access = prepareDetection(trgPBO) ? GL_MAP_READ_BIT | GL_MAP_WRITE_BIT : GL_MAP_WRITE_BIT;
+		pinnedBuffers[trgPBO] = glMapTexture2DINTEL(buffers[trgPBO], 0, height * stride, access, strideBuffer, layoutBuffer, pinnedBuffers[trgPBO]);
 
-		processingState.set(trgPBO, true);
-		semaphores[trgPBO].acquireUninterruptibly();
+		countFrame(trgPBO, stats == null ? 0L : System.nanoTime() - pinTime);
 
-		handler.process(
-			width, height,
-			pinnedBuffers[trgPBO],
-			stride,
-			semaphores[trgPBO]
-		);
+		// Send the buffer for processing
+		prepareWrite(trgPBO, resetTexture);
+		capture(trgPBO, frameIndex++);
+		processBuffer(trgPBO);
 
 		bufferIndex++;
 
-		if ( resetTexture ) {
-			syncCopy(trgPBO);
-			resetTexture = true;
-		}
+		if ( resetTexture ) // Try to show the first frame immediately, tick will copy it otherwise
+			tryCopy(trgPBO);
+
+		return true;
 	}
 
 	public void tick() {
 		final int srcPBO = (int)(currentIndex % transfersToBuffer);
-		if ( !processingState.get(srcPBO) )
-			return;
-
-		// Try again next frame
-		if ( !semaphores[srcPBO].tryAcquire() )
+		if ( !ring.isBusy(srcPBO) )
 			return;
 
-		semaphores[srcPBO].release(); // Give it back
-
-		postProcess(srcPBO);
-		processingState.set(srcPBO, false);
-
-		copyTexture(srcPBO);
+		// Try again next frame if the handler misses the deadline, the previous texture is shown until then
+		tryCopy(srcPBO);
 	}
 
-	private void syncCopy(final int index) {
-		waitForProcessingToComplete(index);
+	/** Copies the buffer at the specified index to the texture, if the handler releases it before the upload deadline. */
+	private boolean tryCopy(final int index) {
+		if ( !tryProcessingToComplete(index) )
+			return false;
+
 		copyTexture(index);
+		resetTexture = false;
+		return true;
 	}
 
 	private void copyTexture(final int index) {
@@ -212,7 +240,22 @@ final class TextureStreamINTEL extends StreamBuffered implements TextureStream {
 		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, texFBO);
 
 		fboUtil.framebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, buffers[index], 0);
-		fboUtil.blitFramebuffer(0, 0, width, height, 0, 0, width, height, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+		// Copy the dirty rectangles only, flipped to the bottom-up texture if the handler writes top-down
+		final DirtyRegion region = damage.getDamage(index);
+		final boolean flip = getOrientation(index) == StreamOrientation.TOP_DOWN;
+
+		beginStage(index, Stage.UPLOAD);
+		for ( int i = 0; i < region.getRectCount(); i++ ) {
+			final int x0 = region.getX(i);
+			final int y0 = region.getY(i);
+			final int x1 = x0 + region.getWidth(i);
+			final int y1 = y0 + region.getHeight(i);
+			if ( flip )
+				fboUtil.blitFramebuffer(x0, y0, x1, y1, x0, height - y0, x1, height - y1, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+			else
+				fboUtil.blitFramebuffer(x0, y0, x1, y1, x0, y0, x1, y1, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+		}
+		endStage(index, Stage.UPLOAD);
 		fboUtil.framebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, 0, 0);
 
 		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
@@ -229,22 +272,31 @@ final class TextureStreamINTEL extends StreamBuffered implements TextureStream {
 		glBindTexture(GL_TEXTURE_2D, texID);
 	}
 
-	private void destroyObjects() {
-		for ( int i = 0; i < semaphores.length; i++ ) {
-			if ( processingState.get(i) )
+	/** Waits for the handler to release every buffer. */
+	private void releaseBuffers() {
+		for ( int i = 0; i < transfersToBuffer; i++ ) {
+			if ( ring.isBusy(i) )
 				waitForProcessingToComplete(i);
 		}
+	}
+
+	private void destroyObjects() {
+		releaseBuffers();
 
 		for ( int i = 0; i < buffers.length; i++ ) {
 			glDeleteTextures(buffers[i]);
 			buffers[i] = 0;
 		}
 
-		glDeleteTextures(texID);
+		if ( texID != 0 ) {
+			StreamUtil.deleteRenderTexture(texID);
+			texID = 0;
+		}
 	}
 
 	public void destroy() {
 		destroyObjects();
+		destroyTimer();
 
 		fboUtil.deleteFramebuffers(bufferFBO);
 		fboUtil.deleteFramebuffers(texFBO);
@@ -31,10 +31,17 @@
  */
 package org.lwjgl.util.stream;
 
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GLContext;
+import org.lwjgl.util.stream.StreamStats.Stage;
+
+import java.nio.ByteBuffer;
+
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL12.*;
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL21.*;
+import static org.lwjgl.opengl.GL30.*;
 
 /** Implements streaming PBO updates to an OpenGL texture. */
 abstract class TextureStreamPBO extends StreamBufferedPBO implements TextureStream {
@@ -45,8 +52,18 @@ abstract class TextureStreamPBO extends StreamBufferedPBO implements TextureStre
 
 	private boolean resetTexture;
 
-	protected TextureStreamPBO(final StreamHandler handler, final int transfersToBuffer) {
-		super(handler, transfersToBuffer);
+	private final int internalFormat;
+
+	// Top-down frames are uploaded to flipTexID, then flipped to texID with a blit
+	private StreamUtil.FBOUtil fboUtil;
+	private int                flipTexID;
+	private int                flipFBO;
+	private int                texFBO;
+
+	protected TextureStreamPBO(final StreamHandler handler, final int transfersToBuffer, final StreamFormat format) {
+		super(handler, transfersToBuffer, format);
+
+		internalFormat = format.getInternalFormat(GLContext.getCapabilities());
 
 		texID = glGenTextures();
 		glBindTexture(GL_TEXTURE_2D, texID);
@@ -67,129 +84,274 @@ abstract class TextureStreamPBO extends StreamBufferedPBO implements TextureStre
 		return height;
 	}
 
-	private void resize(final int width, final int height) {
+	protected void resize(final int width, final int height) {
 		if ( width < 0 || height < 0 )
 			throw new IllegalArgumentException("Invalid dimensions: " + width + " x " + height);
 
-		destroyObjects();
+		// Reuse the buffers if the new dimensions fit. The texture is always respecified.
+		final boolean reuse = fitsCapacity(width, height);
+		if ( reuse )
+			releaseBuffers();
+		else
+			destroyObjects();
+
+		if ( stats != null )
+			stats.countResize();
 
 		this.width = width;
 		this.height = height;
 
-		this.stride = StreamUtil.getStride(width);
+		if ( !reuse ) {
+			setCapacity(width, height);
+			this.stride = StreamUtil.getStride(capacityWidth, format);
+		}
 
 		if ( width == 0 || height == 0 )
 			return;
 
+		restart();
+
+		// Setup upload buffers
+
+		if ( !reuse )
+			resizeBuffers(capacityHeight, stride);
+	}
+
+	/** Discards the frames in flight, the next one is uploaded in full. */
+	private void restart() {
+		damage.reset(width, height);
+
 		bufferIndex = 0;
 		currentIndex = 0;
 
 		resetTexture = true;
 
-		// Setup upload buffers
+		if ( flipTexID != 0 ) {
+			// The stream texture is only written by the flip blits, it is respecified here instead of by the upload
+			glBindTexture(GL_TEXTURE_2D, texID);
+			glTexImage2D(GL_TEXTURE_2D, 0, internalFormat, width, height, 0, format.getTransferFormat(), format.getTransferType(), (ByteBuffer)null);
+			glBindTexture(GL_TEXTURE_2D, 0);
+		}
+	}
+
+	public void setOrientation(final StreamOrientation orientation) {
+		if ( orientation == this.orientation )
+			return;
+
+		final ContextCapabilities caps = GLContext.getCapabilities();
+		if ( orientation == StreamOrientation.TOP_DOWN && !StreamUtil.isBlitSupported(caps) )
+			return;
+
+		// The handler may be writing a frame in the previous orientation
+		releaseBuffers();
+
+		this.orientation = orientation;
 
-		resizeBuffers(height, stride);
+		if ( orientation == StreamOrientation.TOP_DOWN ) {
+			if ( fboUtil == null )
+				fboUtil = StreamUtil.getFBOUtil(caps);
+
+			flipTexID = glGenTextures();
+			glBindTexture(GL_TEXTURE_2D, flipTexID);
+			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+			glBindTexture(GL_TEXTURE_2D, 0);
+
+			flipFBO = fboUtil.genFramebuffers();
+			fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, flipFBO);
+			fboUtil.framebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, flipTexID, 0);
+			fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, 0);
+
+			texFBO = fboUtil.genFramebuffers();
+			fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, texFBO);
+			fboUtil.framebufferTexture2D(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, texID, 0);
+			fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+		} else
+			deleteFlipObjects();
+
+		if ( width != 0 && height != 0 )
+			restart();
+	}
+
+	private void deleteFlipObjects() {
+		if ( flipTexID == 0 )
+			return;
+
+		fboUtil.deleteFramebuffers(texFBO);
+		fboUtil.deleteFramebuffers(flipFBO);
+		glDeleteTextures(flipTexID);
+
+		texFBO = flipFBO = flipTexID = 0;
 	}
 
 	protected void resizeBuffers(final int height, final int stride) {
 		super.resizeBuffers(height, stride, GL_PIXEL_UNPACK_BUFFER, GL_STREAM_DRAW);
 	}
 
-	public void snapshot() {
-		if ( width != handler.getWidth() || height != handler.getHeight() )
-			resize(handler.getWidth(), handler.getHeight());
+	public boolean snapshot() {
+		checkSize();
 
 		if ( width == 0 || height == 0 )
-			return;
+			return false;
 
 		final int trgPBO = (int)(bufferIndex % transfersToBuffer);
 
-		// Back-pressure. Make sure we never buffer more than <transfersToBuffer> frames ahead.
+		// Back-pressure. Make sure we never buffer more than <transfersToBuffer> frames ahead. If the handler is still
+		// processing the oldest buffer, we don't wait past the deadline. The snapshot is skipped and the next one tries again.
 
-		if ( processingState.get(trgPBO) )
-			syncUpload(trgPBO);
+		if ( ring.isBusy(trgPBO) && !tryUpload(trgPBO) ) {
+			droppedFrames++;
+			if ( stats != null )
+				stats.countDroppedFrame();
+			return false;
+		}
 
-		pinBuffer(trgPBO);
+		final long pinTime = stats == null ? 0L : System.nanoTime();
 
-		// Send the buffer for processing
+		pinBuffer(trgPBO);
 
-		processingState.set(trgPBO, true);
-		semaphores[trgPBO].acquireUninterruptibly();
+		countFrame(trgPBO, stats == null ? 0L : System.nanoTime() - pinTime);
 
-		handler.process(
-			width, height,
-			pinnedBuffers[trgPBO],
-			stride,
-			semaphores[trgPBO]
-		);
+		// Send the buffer for processing
+		prepareWrite(trgPBO, resetTexture);
+		capture(trgPBO, frameIndex++);
+		processBuffer(trgPBO);
 
 		bufferIndex++;
 
-		if ( resetTexture ) // Synchronize to show the first frame immediately
-			syncUpload(trgPBO);
+		if ( resetTexture ) // Try to show the first frame immediately, tick will upload it otherwise
+			tryUpload(trgPBO);
+
+		return true;
 	}
 
 	protected abstract void pinBuffer(final int index);
 
 	public void tick() {
 		final int srcPBO = (int)(currentIndex % transfersToBuffer);
-		if ( !processingState.get(srcPBO) )
+		if ( !ring.isBusy(srcPBO) )
 			return;
 
-		syncUpload(srcPBO);
+		// Try again next frame if the handler misses the deadline, the previous texture is shown until then
+		tryUpload(srcPBO);
 	}
 
-	private void syncUpload(final int index) {
+	/** Uploads the buffer at the specified index, if the handler releases it before the upload deadline. */
+	private boolean tryUpload(final int index) {
 		glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pbos[index]);
-		waitForProcessingToComplete(index);
 
-		upload(index);
+		final boolean released = tryProcessingToComplete(index);
+		if ( released )
+			upload(index);
 
 		glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+
+		return released;
+	}
+
+	/** Returns the offset of the frame at the specified index in the unpack buffer it is bound to. */
+	protected long getUnpackOffset(final int index) {
+		return 0L;
 	}
 
 	private void upload(final int srcPBO) {
+		final long offset = getUnpackOffset(srcPBO);
+
 		// Asynchronously upload current update
 
-		glBindTexture(GL_TEXTURE_2D, texID);
-		glPixelStorei(GL_UNPACK_ROW_LENGTH, stride >> 2);
-		if ( resetTexture ) {
-			glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, 0);
+		final DirtyRegion region = resetTexture ? null : damage.getDamage(srcPBO);
+
+		glBindTexture(GL_TEXTURE_2D, flipTexID == 0 ? texID : flipTexID);
+		glPixelStorei(GL_UNPACK_ROW_LENGTH, stride / format.getBytesPerPixel());
+		beginStage(srcPBO, Stage.UPLOAD);
+		if ( region == null ) {
+			glTexImage2D(GL_TEXTURE_2D, 0, internalFormat, width, height, 0, format.getTransferFormat(), format.getTransferType(), offset);
 			resetTexture = false;
-		} else
-			glTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, width, height, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, 0);
+		} else {
+			if ( region.isFull(width, height) )
+				glTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, width, height, format.getTransferFormat(), format.getTransferType(), offset);
+			else {
+				// Upload the dirty rectangles only, from the same location in the buffer
+				for ( int i = 0; i < region.getRectCount(); i++ ) {
+					final int x = region.getX(i);
+					final int y = region.getY(i);
+
+					glPixelStorei(GL_UNPACK_SKIP_PIXELS, x);
+					glPixelStorei(GL_UNPACK_SKIP_ROWS, y);
+					glTexSubImage2D(GL_TEXTURE_2D, 0, x, y, region.getWidth(i), region.getHeight(i), format.getTransferFormat(), format.getTransferType(), offset);
+				}
+				glPixelStorei(GL_UNPACK_SKIP_PIXELS, 0);
+				glPixelStorei(GL_UNPACK_SKIP_ROWS, 0);
+			}
+		}
 		glPixelStorei(GL_UNPACK_ROW_LENGTH, 0);
 		glBindTexture(GL_TEXTURE_2D, 0);
+		if ( flipTexID != 0 )
+			flip(region == null || region.isFull(width, height) ? null : region);
+		endStage(srcPBO, Stage.UPLOAD);
 
 		postUpload(srcPBO);
 
 		currentIndex++;
 	}
 
+	/**
+	 * Copies the upload texture to the stream texture, flipped vertically.
+	 *
+	 * @param region the region to copy, in buffer coordinates, or null to copy the whole frame
+	 */
+	private void flip(final DirtyRegion region) {
+		fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, flipFBO);
+		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, texFBO);
+
+		if ( region == null )
+			fboUtil.blitFramebuffer(0, 0, width, height, 0, height, width, 0, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+		else {
+			for ( int i = 0; i < region.getRectCount(); i++ ) {
+				final int x0 = region.getX(i);
+				final int y0 = region.getY(i);
+				final int x1 = x0 + region.getWidth(i);
+				final int y1 = y0 + region.getHeight(i);
+				fboUtil.blitFramebuffer(x0, y0, x1, y1, x0, height - y0, x1, height - y1, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+			}
+		}
+
+		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+		fboUtil.bindFramebuffer(GL_READ_FRAMEBUFFER, 0);
+	}
+
 	protected abstract void postUpload(int index);
 
 	public void bind() {
 		glBindTexture(GL_TEXTURE_2D, texID);
 	}
 
-	protected void destroyObjects() {
-		for ( int i = 0; i < semaphores.length; i++ ) {
-			if ( processingState.get(i) ) {
+	/** Waits for the handler to release every buffer. */
+	private void releaseBuffers() {
+		for ( int i = 0; i < transfersToBuffer; i++ ) {
+			if ( ring.isBusy(i) ) {
 				glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pbos[i]);
 				waitForProcessingToComplete(i);
 			}
 		}
 
 		glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+	}
+
+	protected void destroyObjects() {
+		releaseBuffers();
 
 		for ( int i = 0; i < pbos.length; i++ ) {
 			if ( pbos[i] != 0 )
-				glDeleteBuffers(pbos[i]);
+				deleteBuffer(i);
 		}
 	}
 
 	public void destroy() {
 		destroyObjects();
+		destroyTimer();
+
+		deleteFlipObjects();
 	}
 
 }
\ No newline at end of file
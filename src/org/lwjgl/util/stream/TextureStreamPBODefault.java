@@ -46,12 +46,24 @@ public class TextureStreamPBODefault extends TextureStreamPBO {
 		}
 
 		public TextureStream create(final StreamHandler handler, final int transfersToBuffer) {
-			return new TextureStreamPBODefault(handler, transfersToBuffer);
+			return create(handler, transfersToBuffer, getFormat(handler));
+		}
+
+		public boolean isSupported(final ContextCapabilities caps, final StreamFormat format) {
+			return isSupported(caps) && format.isUploadSupported(caps);
+		}
+
+		public TextureStream create(final StreamHandler handler, final int transfersToBuffer, final StreamFormat format) {
+			return new TextureStreamPBODefault(handler, transfersToBuffer, format);
 		}
 	};
 
 	public TextureStreamPBODefault(final StreamHandler handler, final int transfersToBuffer) {
-		super(handler, transfersToBuffer);
+		this(handler, transfersToBuffer, StreamFormat.BGRA8);
+	}
+
+	public TextureStreamPBODefault(final StreamHandler handler, final int transfersToBuffer, final StreamFormat format) {
+		super(handler, transfersToBuffer, format);
 	}
 
 	protected void postProcess(final int index) {
@@ -63,13 +75,10 @@ public class TextureStreamPBODefault extends TextureStreamPBO {
 
 	public void pinBuffer(final int index) {
 		glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pbos[index]);
-		glBufferData(GL_PIXEL_UNPACK_BUFFER, height * stride, GL_STREAM_DRAW); // Orphan previous buffer
-		pinnedBuffers[index] = glMapBuffer(GL_PIXEL_UNPACK_BUFFER, GL_WRITE_ONLY, height * stride, pinnedBuffers[index]);
+		glBufferData(GL_PIXEL_UNPACK_BUFFER, pboSizes[index], GL_STREAM_DRAW); // Orphan previous buffer, same size so the driver can recycle it
+		// The change detector reads the buffer after the handler has written it
+		pinnedBuffers[index] = glMapBuffer(GL_PIXEL_UNPACK_BUFFER, prepareDetection(index) ? GL_READ_WRITE : GL_WRITE_ONLY, height * stride, pinnedBuffers[index]);
 		glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
 	}
 
-	public void destroy() {
-		destroyObjects();
-	}
-
 }
\ No newline at end of file
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GLSync;
+import org.lwjgl.util.stream.StreamUtil.TextureStreamFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.lwjgl.opengl.ARBBufferStorage.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL21.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+
+/**
+ * Implements streaming PBO updates to an OpenGL texture, using a single persistently mapped, coherent buffer. The buffer
+ * is split into one region per transfer and each region is synchronized with a fence. The buffer is never orphaned or
+ * remapped, except when the stream outgrows it.
+ */
+public class TextureStreamPBOPersistent extends TextureStreamPBO {
+
+	public static final TextureStreamFactory FACTORY = new TextureStreamFactory("ARB_buffer_storage") {
+		public boolean isSupported(final ContextCapabilities caps) {
+			return TextureStreamPBORange.FACTORY.isSupported(caps)
+			       && (caps.OpenGL44 || caps.GL_ARB_buffer_storage)
+			       && (caps.OpenGL32 || caps.GL_ARB_sync);
+		}
+
+		public TextureStream create(final StreamHandler handler, final int transfersToBuffer) {
+			return create(handler, transfersToBuffer, getFormat(handler));
+		}
+
+		public boolean isSupported(final ContextCapabilities caps, final StreamFormat format) {
+			return isSupported(caps) && format.isUploadSupported(caps);
+		}
+
+		public TextureStream create(final StreamHandler handler, final int transfersToBuffer, final StreamFormat format) {
+			return new TextureStreamPBOPersistent(handler, transfersToBuffer, format);
+		}
+	};
+
+	// Readable too, for the change detector. Reads from the mapping are only done after the fence has been waited on.
+	private static final int STORAGE_FLAGS = GL_MAP_READ_BIT | GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+
+	private final GLSync[] fences;
+
+	private int        buffer;
+	private ByteBuffer mapping;
+	private int        regionSize;
+
+	public TextureStreamPBOPersistent(final StreamHandler handler, final int transfersToBuffer) {
+		this(handler, transfersToBuffer, StreamFormat.BGRA8);
+	}
+
+	public TextureStreamPBOPersistent(final StreamHandler handler, final int transfersToBuffer, final StreamFormat format) {
+		super(handler, transfersToBuffer, format);
+
+		fences = new GLSync[this.transfersToBuffer];
+	}
+
+	protected void resizeBuffers(final int height, final int stride) {
+		regionSize = height * stride;
+
+		final long size = (long)regionSize * transfersToBuffer;
+
+		buffer = glGenBuffers();
+
+		glBindBuffer(GL_PIXEL_UNPACK_BUFFER, buffer);
+		glBufferStorage(GL_PIXEL_UNPACK_BUFFER, size, STORAGE_FLAGS);
+		mapping = glMapBufferRange(GL_PIXEL_UNPACK_BUFFER, 0L, size, STORAGE_FLAGS, null);
+
+		super.resizeBuffers(height, stride);
+	}
+
+	protected void createBuffer(final int index, final int size, final int pboTarget, final int pboUsage) {
+		pbos[index] = buffer;
+
+		mapping.clear();
+		mapping.position(index * regionSize);
+		mapping.limit(mapping.position() + regionSize);
+
+		pinnedBuffers[index] = mapping.slice().order(ByteOrder.nativeOrder());
+	}
+
+	protected void deleteBuffer(final int index) {
+		if ( fences[index] != null )
+			StreamUtil.waitOnFence(fences, index);
+
+		// The buffer is shared by all regions, it is deleted in destroyObjects.
+		pbos[index] = 0;
+		pinnedBuffers[index] = null;
+	}
+
+	protected long getUnpackOffset(final int index) {
+		return index * (long)regionSize;
+	}
+
+	protected void postUpload(final int index) {
+		fences[index] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+	}
+
+	protected boolean isPersistentlyMapped() {
+		return true;
+	}
+
+	protected void postProcess(final int index) {
+	}
+
+	public void pinBuffer(final int index) {
+		if ( fences[index] != null ) // Wait for TexSubImage to complete before the region is written again
+			StreamUtil.waitOnFence(fences, index);
+
+		prepareDetection(index);
+
+		final ByteBuffer data = pinnedBuffers[index];
+		data.clear();
+		data.limit(height * stride);
+	}
+
+	protected void destroyObjects() {
+		super.destroyObjects();
+
+		if ( buffer != 0 ) {
+			glBindBuffer(GL_PIXEL_UNPACK_BUFFER, buffer);
+			glUnmapBuffer(GL_PIXEL_UNPACK_BUFFER);
+			glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+
+			glDeleteBuffers(buffer);
+			buffer = 0;
+			mapping = null;
+		}
+	}
+
+}
\ No newline at end of file
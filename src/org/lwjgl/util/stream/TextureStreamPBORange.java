@@ -49,14 +49,26 @@ public class TextureStreamPBORange extends TextureStreamPBO {
 		}
 
 		public TextureStream create(final StreamHandler handler, final int transfersToBuffer) {
-			return new TextureStreamPBORange(handler, transfersToBuffer);
+			return create(handler, transfersToBuffer, getFormat(handler));
+		}
+
+		public boolean isSupported(final ContextCapabilities caps, final StreamFormat format) {
+			return isSupported(caps) && format.isUploadSupported(caps);
+		}
+
+		public TextureStream create(final StreamHandler handler, final int transfersToBuffer, final StreamFormat format) {
+			return new TextureStreamPBORange(handler, transfersToBuffer, format);
 		}
 	};
 
 	private final GLSync[] fences;
 
 	public TextureStreamPBORange(final StreamHandler handler, final int transfersToBuffer) {
-		super(handler, transfersToBuffer);
+		this(handler, transfersToBuffer, StreamFormat.BGRA8);
+	}
+
+	public TextureStreamPBORange(final StreamHandler handler, final int transfersToBuffer, final StreamFormat format) {
+		super(handler, transfersToBuffer, format);
 
 		fences = new GLSync[this.transfersToBuffer];
 	}
@@ -74,13 +86,11 @@ public class TextureStreamPBORange extends TextureStreamPBO {
 			StreamUtil.waitOnFence(fences, index);
 
 		glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pbos[index]);
-		glBufferData(GL_PIXEL_UNPACK_BUFFER, height * stride, GL_STREAM_DRAW); // Orphan previous buffer
-		pinnedBuffers[index] = glMapBufferRange(GL_PIXEL_UNPACK_BUFFER, 0, height * stride, GL_MAP_WRITE_BIT | GL_MAP_UNSYNCHRONIZED_BIT, pinnedBuffers[index]);
+		glBufferData(GL_PIXEL_UNPACK_BUFFER, pboSizes[index], GL_STREAM_DRAW); // Orphan previous buffer, same size so the driver can recycle it
+		// The change detector reads the buffer after the handler has written it. Reads cannot be unsynchronized, but we've already waited on the fence.
+		final int access = prepareDetection(index) ? GL_MAP_READ_BIT | GL_MAP_WRITE_BIT : GL_MAP_WRITE_BIT | GL_MAP_UNSYNCHRONIZED_BIT;
+		pinnedBuffers[index] = glMapBufferRange(GL_PIXEL_UNPACK_BUFFER, 0, height * stride, access, pinnedBuffers[index]);
 		glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
 	}
 
-	public void destroy() {
-		destroyObjects();
-	}
-
 }
\ No newline at end of file
@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Detects the changes between consecutive frames of a {@link TextureStream} whose handler cannot report damage itself.
+ * Enabled with {@link TextureStream#setChangeDetector}.
+ * <p/>
+ * The buffer is split into square tiles. Each tile is hashed after the handler has released the buffer and compared
+ * with the hash of the same tile in the previous frame, only the tiles that changed are uploaded. Rows of tiles are
+ * hashed in parallel on a dedicated fork-join pool. The handler must write the whole buffer for every frame.
+ * <p/>
+ * Hashing is synchronous. It runs on the rendering thread, in {@link TextureStream#tick} or {@link TextureStream#snapshot},
+ * when the stream reclaims a buffer the handler has released, and the rendering thread waits for it. Every byte of the
+ * frame is read from the mapped buffer, which may be uncached memory, so the cost grows with the frame size and not with
+ * the size of the changes. That time comes on top of the upload deadline. Detection pays off when uploading is more
+ * expensive than reading the frame, e.g. large frames that change little, and costs frame time otherwise.
+ * <p/>
+ * Handlers that render to an int array before they write the frame can use a detector of their own, with
+ * {@link #detect(int[], int, int, boolean, DirtyRegion)}. A detector compares consecutive frames of a single source, it
+ * cannot be shared.
+ * <p/>
+ * A changed tile that hashes to the same 64-bit value is missed. That is extremely unlikely, but not impossible.
+ */
+public final class TileChangeDetector {
+
+	public static final int DEFAULT_TILE_SIZE = 64;
+
+	// Parallel hashing is not worth it below this many tiles, 4 tiles of the default size are 64KB.
+	private static final int PARALLEL_THRESHOLD = 4;
+
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+
+	private final int tileSize;
+
+	private final ForkJoinPool pool;
+	private final HashTask[]   tasks;
+	private final RecursiveAction root;
+
+	// The frame being hashed, either a buffer or an int array
+	private ByteBuffer buffer;
+	private int[]      pixels;
+	private int        width;
+	private int        height;
+	private int        stride;
+	private int        bytesPerPixel;
+
+	private int tilesX;
+	private int tilesY;
+
+	private long[]    hashes;
+	private boolean[] changed;
+	private int[]     rects;
+
+	// False until the first frame after a resize has been hashed
+	private boolean baseline;
+
+	private volatile long hits;
+	private volatile long misses;
+
+	/** Creates a detector with the default tile size that hashes on all available processors. */
+	public TileChangeDetector() {
+		this(DEFAULT_TILE_SIZE, Runtime.getRuntime().availableProcessors());
+	}
+
+	public TileChangeDetector(final int tileSize, final int parallelism) {
+		if ( tileSize <= 0 )
+			throw new IllegalArgumentException("Invalid tile size: " + tileSize);
+		if ( parallelism <= 0 )
+			throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+
+		this.tileSize = tileSize;
+
+		if ( parallelism == 1 ) {
+			pool = null;
+			tasks = null;
+			root = null;
+		} else {
+			pool = new ForkJoinPool(parallelism);
+
+			tasks = new HashTask[parallelism];
+			for ( int i = 0; i < parallelism; i++ )
+				tasks[i] = new HashTask(i);
+
+			root = new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				protected void compute() {
+					for ( HashTask task : tasks )
+						task.reinitialize();
+					invokeAll(tasks);
+				}
+			};
+		}
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/** Returns the number of tiles that did not change. May be called from any thread. */
+	public long getHits() {
+		return hits;
+	}
+
+	/** Returns the number of tiles that changed. May be called from any thread. */
+	public long getMisses() {
+		return misses;
+	}
+
+	/** Returns the fraction of tiles that did not change, or 0 if no tiles have been checked. May be called from any thread. */
+	public double getHitRatio() {
+		final long hits = this.hits;
+		final long total = hits + misses;
+
+		return total == 0L ? 0.0 : (double)hits / total;
+	}
+
+	/** Shuts down the hashing threads. */
+	public void destroy() {
+		if ( pool != null )
+			pool.shutdown();
+	}
+
+	/**
+	 * Hashes the specified frame and adds the tiles that changed since the previous frame to the specified region.
+	 * If the region is already full, the hashes are updated and nothing else happens. Blocks until every tile has been
+	 * hashed.
+	 */
+	void detect(final ByteBuffer buffer, final int width, final int height, final int stride, final int bytesPerPixel, final DirtyRegion region) {
+		this.buffer = buffer;
+		this.stride = stride;
+		this.bytesPerPixel = bytesPerPixel;
+
+		try {
+			detect(width, height, false, region);
+		} finally {
+			this.buffer = null;
+		}
+	}
+
+	/**
+	 * Hashes the specified pixels and adds the tiles that changed since the previous call to the specified region. The
+	 * pixels are tightly packed, <code>width</code> ints per row. If the region is already full, the hashes are updated
+	 * and nothing else happens. Blocks until every tile has been hashed.
+	 *
+	 * @param flip true if the rows of the pixels are in the reverse order of the region rows, e.g. top-down pixels for a
+	 *             bottom-up frame
+	 */
+	public void detect(final int[] pixels, final int width, final int height, final boolean flip, final DirtyRegion region) {
+		if ( pixels.length < width * height )
+			throw new IllegalArgumentException("Not enough pixels: " + pixels.length);
+
+		this.pixels = pixels;
+		this.stride = width;
+
+		try {
+			detect(width, height, flip, region);
+		} finally {
+			this.pixels = null;
+		}
+	}
+
+	private void detect(final int width, final int height, final boolean flip, final DirtyRegion region) {
+		if ( width != this.width || height != this.height )
+			resize(width, height);
+
+		if ( tilesX == 0 || tilesY == 0 )
+			return;
+
+		if ( pool == null || tilesX * tilesY < PARALLEL_THRESHOLD )
+			hashRows(0, tilesY);
+		else {
+			root.reinitialize();
+			pool.invoke(root);
+		}
+
+		baseline = true;
+
+		int changedTiles = 0;
+		for ( int i = 0; i < changed.length; i++ ) {
+			if ( changed[i] )
+				changedTiles++;
+		}
+
+		if ( !region.isFull(width, height) && changedTiles != 0 )
+			addChangedTiles(region, flip);
+
+		hits += changed.length - changedTiles;
+		misses += changedTiles;
+	}
+
+	private void resize(final int width, final int height) {
+		this.width = width;
+		this.height = height;
+
+		tilesX = (width + tileSize - 1) / tileSize;
+		tilesY = (height + tileSize - 1) / tileSize;
+
+		hashes = new long[tilesX * tilesY];
+		changed = new boolean[tilesX * tilesY];
+		rects = new int[tilesX * tilesY * 4];
+
+		// Nothing to compare with, every tile will be reported as changed. Not that it matters, a resize uploads everything.
+		baseline = false;
+	}
+
+	private void hashRows(final int firstRow, final int lastRow) {
+		for ( int ty = firstRow; ty < lastRow; ty++ ) {
+			final int y = ty * tileSize;
+			final int h = Math.min(tileSize, height - y);
+
+			for ( int tx = 0; tx < tilesX; tx++ ) {
+				final int x = tx * tileSize;
+
+				final long hash = pixels == null
+				                  ? hashTile(x, y, Math.min(tileSize, width - x), h)
+				                  : hashPixels(x, y, Math.min(tileSize, width - x), h);
+
+				final int tile = ty * tilesX + tx;
+				changed[tile] = !baseline || hash != hashes[tile];
+				hashes[tile] = hash;
+			}
+		}
+	}
+
+	private long hashTile(final int x, final int y, final int w, final int h) {
+		final ByteBuffer buffer = this.buffer;
+		final int rowBytes = w * bytesPerPixel;
+
+		// Four independent lanes, the multiplications can run in parallel.
+		long h0 = PRIME1;
+		long h1 = PRIME2;
+		long h2 = 0L;
+		long h3 = -PRIME1;
+
+		for ( int row = 0; row < h; row++ ) {
+			final int offset = (y + row) * stride + x * bytesPerPixel;
+			final int end = offset + rowBytes;
+
+			int i = offset;
+			for ( ; i + 32 <= end; i += 32 ) {
+				h0 = round(h0, buffer.getLong(i));
+				h1 = round(h1, buffer.getLong(i + 8));
+				h2 = round(h2, buffer.getLong(i + 16));
+				h3 = round(h3, buffer.getLong(i + 24));
+			}
+			for ( ; i + 8 <= end; i += 8 )
+				h0 = round(h0, buffer.getLong(i));
+			if ( i + 4 <= end ) {
+				h1 = round(h1, buffer.getInt(i));
+				i += 4;
+			}
+			for ( ; i < end; i++ ) // Less than 4 bytes left, with 16 and 8 bit formats
+				h2 = round(h2, buffer.get(i));
+		}
+
+		return finish(h0, h1, h2, h3);
+	}
+
+	/** Hashes a tile of the int array, two pixels per round. */
+	private long hashPixels(final int x, final int y, final int w, final int h) {
+		final int[] pixels = this.pixels;
+
+		long h0 = PRIME1;
+		long h1 = PRIME2;
+		long h2 = 0L;
+		long h3 = -PRIME1;
+
+		for ( int row = 0; row < h; row++ ) {
+			final int offset = (y + row) * stride + x;
+			final int end = offset + w;
+
+			int i = offset;
+			for ( ; i + 8 <= end; i += 8 ) {
+				h0 = round(h0, pack(pixels[i], pixels[i + 1]));
+				h1 = round(h1, pack(pixels[i + 2], pixels[i + 3]));
+				h2 = round(h2, pack(pixels[i + 4], pixels[i + 5]));
+				h3 = round(h3, pack(pixels[i + 6], pixels[i + 7]));
+			}
+			for ( ; i + 2 <= end; i += 2 )
+				h0 = round(h0, pack(pixels[i], pixels[i + 1]));
+			if ( i < end )
+				h1 = round(h1, pixels[i]);
+		}
+
+		return finish(h0, h1, h2, h3);
+	}
+
+	private static long pack(final int lo, final int hi) {
+		return (lo & 0xFFFFFFFFL) | ((long)hi << 32);
+	}
+
+	private static long finish(final long h0, final long h1, final long h2, final long h3) {
+		long hash = Long.rotateLeft(h0, 1) + Long.rotateLeft(h1, 7) + Long.rotateLeft(h2, 12) + Long.rotateLeft(h3, 18);
+
+		// Final avalanche
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+
+		return hash;
+	}
+
+	private static long round(final long hash, final long value) {
+		return Long.rotateLeft(hash + value * PRIME2, 31) * PRIME1;
+	}
+
+	/** Adds the changed tiles to the specified region. Horizontal runs of tiles become one rectangle, equal runs in consecutive rows are merged. */
+	private void addChangedTiles(final DirtyRegion region, final boolean flip) {
+		int count = 0;
+
+		for ( int ty = 0; ty < tilesY; ty++ ) {
+			for ( int tx = 0; tx < tilesX; ) {
+				if ( !changed[ty * tilesX + tx] ) {
+					tx++;
+					continue;
+				}
+
+				final int x0 = tx;
+				while ( tx < tilesX && changed[ty * tilesX + tx] )
+					tx++;
+
+				// Extend a rectangle that ends at the previous row with the same span
+				int r = 0;
+				for ( ; r < count; r += 4 ) {
+					if ( rects[r] == x0 && rects[r + 2] == tx && rects[r + 3] == ty )
+						break;
+				}
+
+				if ( r == count ) {
+					rects[r] = x0;
+					rects[r + 1] = ty;
+					rects[r + 2] = tx;
+					count += 4;
+				}
+				rects[r + 3] = ty + 1;
+			}
+		}
+
+		for ( int r = 0; r < count; r += 4 ) {
+			final int x = rects[r] * tileSize;
+			final int y = rects[r + 1] * tileSize;
+			final int h = Math.min(rects[r + 3] * tileSize, height) - y;
+
+			region.add(x, flip ? height - y - h : y, rects[r + 2] * tileSize - x, h, width, height);
+		}
+	}
+
+	private final class HashTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int index;
+
+		HashTask(final int index) {
+			this.index = index;
+		}
+
+		protected void compute() {
+			// Contiguous bands of tile rows
+			final int firstRow = (int)((long)tilesY * index / tasks.length);
+			final int lastRow = (int)((long)tilesY * (index + 1) / tasks.length);
+
+			hashRows(firstRow, lastRow);
+		}
+
+	}
+
+}
\ No newline at end of file
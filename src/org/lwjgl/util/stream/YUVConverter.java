@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+
+/**
+ * Converts the RGB frames of a {@link RenderStreamPBO} to {@link StreamFormat#YUV420} or {@link StreamFormat#Y8}.
+ * <p/>
+ * The planes are rendered to a single channel target that has the layout of the read-back buffer, so one glReadPixels
+ * transfers all of them. Each target row holds one row of the Y plane, or two rows of a chroma plane. The conversion
+ * uses the BT.601 limited range coefficients and each chroma sample is the average of 2x2 pixels.
+ */
+final class YUVConverter {
+
+	private static final String FRAGMENT_SHADER =
+		"#version 110\n" +
+		"uniform sampler2D source;\n" +
+		"uniform vec2 texelSize;\n" +
+		"uniform vec4 layout; // width, height, stride, chroma rows\n" +
+		"\n" +
+		"vec3 fetch(vec2 p) {\n" +
+		"\treturn texture2D(source, (min(p, layout.xy - 1.0) + 0.5) * texelSize).rgb;\n" +
+		"}\n" +
+		"\n" +
+		"void main(void) {\n" +
+		"\tvec2 p = floor(gl_FragCoord.xy);\n" +
+		"\tif ( p.y < layout.y ) {\n" +
+		"\t\tgl_FragColor = vec4((16.0 + dot(fetch(p), vec3(65.481, 128.553, 24.966))) / 255.0);\n" +
+		"\t\treturn;\n" +
+		"\t}\n" +
+		"\n" +
+		"\tfloat row = p.y - layout.y;\n" +
+		"\tfloat plane = floor(row / layout.w);\n" +
+		"\tfloat halfStride = layout.z * 0.5;\n" +
+		"\tfloat second = floor(p.x / halfStride);\n" +
+		"\tvec2 q = vec2(p.x - second * halfStride, (row - plane * layout.w) * 2.0 + second) * 2.0;\n" +
+		"\n" +
+		"\tvec3 c = 0.25 * (fetch(q) + fetch(q + vec2(1.0, 0.0)) + fetch(q + vec2(0.0, 1.0)) + fetch(q + 1.0));\n" +
+		"\tvec3 w = mix(vec3(-37.797, -74.203, 112.0), vec3(112.0, -93.786, -18.214), plane);\n" +
+		"\tgl_FragColor = vec4((128.0 + dot(c, w)) / 255.0);\n" +
+		"}";
+
+	private final StreamUtil.FBOUtil fboUtil;
+	private final StreamFormat       format;
+
+	private final ShaderPass pass;
+	private final int        texelSizeLocation;
+	private final int        layoutLocation;
+
+	private final int fbo;
+	private       int target;
+
+	private int targetWidth;
+	private int targetHeight;
+
+	YUVConverter(final StreamUtil.FBOUtil fboUtil, final StreamFormat format) {
+		this.fboUtil = fboUtil;
+		this.format = format;
+
+		pass = new ShaderPass(FRAGMENT_SHADER);
+		texelSizeLocation = pass.getUniformLocation("texelSize");
+		layoutLocation = pass.getUniformLocation("layout");
+
+		pass.begin();
+		glUniform1i(pass.getUniformLocation("source"), 0);
+		pass.end();
+
+		fbo = fboUtil.genFramebuffers();
+	}
+
+	/** Returns the framebuffer that holds the converted frame. */
+	int getFramebuffer() {
+		return fbo;
+	}
+
+	/** Sets up the target for frames that fit in the specified capacity. The stride is in bytes. */
+	void resize(final int stride, final int capacityHeight) {
+		final int rows = format.getRows(capacityHeight);
+		if ( target != 0 && stride == targetWidth && rows == targetHeight )
+			return;
+
+		destroyTarget();
+
+		targetWidth = stride;
+		targetHeight = rows;
+		target = StreamUtil.createRenderBuffer(fboUtil, targetWidth, targetHeight, GL_R8);
+
+		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, fbo);
+		fboUtil.framebufferRenderbuffer(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER, target);
+		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+	}
+
+	/**
+	 * Converts a frame of the specified dimensions from the source texture.
+	 *
+	 * @param source         the texture that holds the RGB frame
+	 * @param capacityWidth  the width of the source texture
+	 * @param capacityHeight the height of the source texture
+	 * @param stride         the stride of the Y plane, in bytes
+	 */
+	void convert(final int source, final int capacityWidth, final int capacityHeight, final int width, final int height, final int stride) {
+		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, fbo);
+
+		pass.begin();
+		glViewport(0, 0, stride, format.getRows(height));
+
+		glActiveTexture(GL_TEXTURE0);
+		glBindTexture(GL_TEXTURE_2D, source);
+
+		glUniform2f(texelSizeLocation, 1.0f / capacityWidth, 1.0f / capacityHeight);
+		glUniform4f(layoutLocation, width, height, stride, StreamFormat.getChromaRows(height));
+
+		pass.draw();
+		pass.end();
+
+		fboUtil.bindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+	}
+
+	private void destroyTarget() {
+		if ( target != 0 ) {
+			StreamUtil.deleteRenderBuffer(fboUtil, target);
+			target = 0;
+		}
+	}
+
+	void destroy() {
+		destroyTarget();
+		fboUtil.deleteFramebuffers(fbo);
+		pass.destroy();
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream.fx;
+
+import org.lwjgl.util.stream.StreamFrame;
+
+import javafx.scene.image.ImageView;
+
+/** Uploads the frames of a {@link StreamPresenter} to its view. Used in the JavaFX thread only. */
+abstract class FrameTarget {
+
+	protected final ImageView view;
+
+	protected FrameTarget(final ImageView view) {
+		this.view = view;
+	}
+
+	/** Returns true if the specified frame can be presented by this target. */
+	abstract boolean supports(StreamFrame frame);
+
+	/**
+	 * Presents the specified frame.
+	 *
+	 * @param frame       the frame
+	 * @param incremental true if the view currently shows the frame that precedes this one, only the dirty region of
+	 *                    the frame needs to be uploaded
+	 *
+	 * @return true if JavaFX reads the frame data when it renders the current pulse, the frame must then be released
+	 *         after that pulse has been rendered. False if the frame can be released immediately.
+	 */
+	abstract boolean present(StreamFrame frame, boolean incremental);
+
+	/** Called when another target has replaced the image of the view. The next frame sets the image again. */
+	abstract void hide();
+
+	/** Releases the images of this target. The view will no longer show them. */
+	abstract void dispose();
+
+}
\ No newline at end of file
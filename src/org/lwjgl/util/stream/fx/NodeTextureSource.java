@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream.fx;
+
+import org.lwjgl.util.stream.DirtyRegion;
+import org.lwjgl.util.stream.StreamFormat;
+import org.lwjgl.util.stream.StreamFormatHandler;
+import org.lwjgl.util.stream.StreamFrame;
+import org.lwjgl.util.stream.StreamFrameHandler;
+import org.lwjgl.util.stream.StreamOrientation;
+import org.lwjgl.util.stream.StreamSignal;
+import org.lwjgl.util.stream.TileChangeDetector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javafx.application.Platform;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.geometry.Bounds;
+import javafx.scene.Node;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.SnapshotResult;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.util.Callback;
+
+/**
+ * A {@link StreamFrameHandler} for texture streams that writes snapshots of a JavaFX {@link Node}. The stream dimensions
+ * follow the layout bounds of the node.
+ * <p/>
+ * Only the snapshot runs on the JavaFX thread, with parameters and images that are reused across frames. The pixels are
+ * read from the image by a dedicated thread, which compares them with the previous frame in square tiles, with a
+ * {@link TileChangeDetector}. Only the tiles that changed are copied to the stream buffer and reported as damage, so with damage tracking enabled on the
+ * stream, only those are uploaded. Without damage tracking, or after a resize, the whole frame is copied.
+ * <p/>
+ * Prefers {@link StreamFormat#BGRA8_PRE}, the format of JavaFX images, so the pixels are read without conversion. The
+ * other formats texture streams upload are converted on the copy thread, for streams that cannot upload the preferred
+ * format. Buffers received with {@link #process(int, int, ByteBuffer, int, StreamSignal)} are written like frames.
+ */
+public class NodeTextureSource implements StreamFrameHandler, StreamFormatHandler {
+
+	private final Node node;
+
+	/** Compares the pixels of consecutive frames. Copy thread only. */
+	private final TileChangeDetector changeDetector;
+
+	private volatile int width;
+	private volatile int height;
+
+	/** The frames waiting for a snapshot. */
+	private final Queue<Copy> pending = new ConcurrentLinkedQueue<Copy>();
+
+	/** True while a snapshot task is queued on the JavaFX thread. A single task drains every pending frame. */
+	private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+
+	/** The frames being snapshot, in request order. JavaFX thread only. */
+	private final ArrayDeque<Copy> snapshots = new ArrayDeque<Copy>();
+
+	/** The images that have been copied and can receive a new snapshot. */
+	private final Queue<WritableImage> freeImages = new ConcurrentLinkedQueue<WritableImage>();
+
+	private final SnapshotParameters             parameters;
+	private final Callback<SnapshotResult, Void> snapshotCallback;
+	private final Runnable                       snapshotTask;
+
+	private final ExecutorService copyExecutor;
+
+	/** The copy of each frame slot. Render thread only. */
+	private Copy[] copies = new Copy[4];
+
+	/** The pixels of the current frame, int ARGB, premultiplied if the frame format is. Copy thread only. */
+	private int[] currentPixels;
+
+	private volatile boolean disposed;
+
+	/** Creates a source for the specified node, with the default tile size. May be called from any thread. */
+	public NodeTextureSource(final Node node) {
+		this(node, TileChangeDetector.DEFAULT_TILE_SIZE);
+	}
+
+	/**
+	 * Creates a source for the specified node. May be called from any thread.
+	 *
+	 * @param tileSize the size of the tiles compared between frames, in pixels
+	 */
+	public NodeTextureSource(final Node node, final int tileSize) {
+		this.node = node;
+		// The copy thread is the only one that compares frames
+		this.changeDetector = new TileChangeDetector(tileSize, 1);
+
+		this.parameters = new SnapshotParameters();
+		this.snapshotCallback = new Callback<SnapshotResult, Void>() {
+			public Void call(final SnapshotResult result) {
+				copy(result);
+				return null;
+			}
+		};
+		this.snapshotTask = new Runnable() {
+			public void run() {
+				snapshot();
+			}
+		};
+
+		this.copyExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, "NodeTextureSource");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		if ( Platform.isFxApplicationThread() )
+			start();
+		else
+			Platform.runLater(new Runnable() {
+				public void run() {
+					start();
+				}
+			});
+	}
+
+	private void start() {
+		if ( disposed )
+			return;
+
+		node.layoutBoundsProperty().addListener(new ChangeListener<Bounds>() {
+			public void changed(final ObservableValue<? extends Bounds> observableValue, final Bounds oldValue, final Bounds newValue) {
+				updateSize();
+			}
+		});
+		updateSize();
+	}
+
+	private void updateSize() {
+		final Bounds bounds = node.getLayoutBounds();
+
+		width = (int)bounds.getWidth();
+		height = (int)bounds.getHeight();
+	}
+
+	public Node getNode() {
+		return node;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public StreamFormat getPreferredFormat() {
+		return StreamFormat.BGRA8_PRE;
+	}
+
+	/**
+	 * Returns the detector that compares the frames. Its hits are the tiles that were not copied because they had not
+	 * changed. The detector must not be used for anything else.
+	 */
+	public TileChangeDetector getChangeDetector() {
+		return changeDetector;
+	}
+
+	public void process(final StreamFrame frame) {
+		// This method runs in the rendering thread
+		// Texture streams never send YUV frames, release them unwritten like frames received after dispose
+		if ( disposed || frame.getFormat().isYUV() ) {
+			frame.release();
+			return;
+		}
+
+		final int slot = frame.getSlot();
+		if ( copies.length <= slot ) {
+			final Copy[] newCopies = new Copy[Math.max(copies.length * 2, slot + 1)];
+			System.arraycopy(copies, 0, newCopies, 0, copies.length);
+			copies = newCopies;
+		}
+
+		Copy copy = copies[slot];
+		if ( copy == null )
+			copy = copies[slot] = new Copy();
+
+		copy.frame = frame;
+		pending.offer(copy);
+
+		if ( snapshotScheduled.compareAndSet(false, true) )
+			Platform.runLater(snapshotTask);
+	}
+
+	/** Writes a {@link StreamFormat#BGRA8} buffer, like a frame. Streams send a {@link StreamFrame} instead. */
+	public void process(final int width, final int height, final ByteBuffer data, final int stride, final StreamSignal signal) {
+		process(new StreamFrame(width, height, data, stride, signal));
+	}
+
+	/** Requests a snapshot for every pending frame, in order. Runs in the JavaFX thread. */
+	private void snapshot() {
+		// Cleared first, a frame offered after this point schedules a new task if we miss it
+		snapshotScheduled.set(false);
+
+		Copy copy;
+		while ( (copy = pending.poll()) != null ) {
+			if ( disposed ) {
+				copy.release();
+				continue;
+			}
+
+			copy.image = getImage(copy.frame.getWidth(), copy.frame.getHeight());
+
+			snapshots.offer(copy);
+			node.snapshot(snapshotCallback, parameters, copy.image);
+		}
+	}
+
+	/** Returns a free image of the specified dimensions. Images of other dimensions are discarded. */
+	private WritableImage getImage(final int width, final int height) {
+		WritableImage image;
+		while ( (image = freeImages.poll()) != null ) {
+			if ( image.getWidth() == width && image.getHeight() == height )
+				return image;
+		}
+
+		return new WritableImage(width, height);
+	}
+
+	/** Sends a completed snapshot to the copy thread. Runs in the JavaFX thread. */
+	private void copy(final SnapshotResult result) {
+		final Copy copy = snapshots.poll();
+
+		copy.image = result.getImage();
+		if ( disposed )
+			copy.release();
+		else
+			copyExecutor.execute(copy);
+	}
+
+	/** Copies the snapshot to the frame. Runs in the copy thread. */
+	private void copy(final WritableImage image, final StreamFrame frame) {
+		final int width = frame.getWidth();
+		final int height = frame.getHeight();
+
+		final int size = width * height;
+		if ( currentPixels == null || currentPixels.length < size )
+			currentPixels = new int[size];
+
+		// The int formats that match the frame layout. Reading JavaFX's premultiplied images as IntArgbPre does not convert.
+		final boolean premultiplied = frame.getFormat().isPremultiplied();
+		image.getPixelReader().getPixels(
+			0, 0, width, height,
+			premultiplied ? PixelFormat.getIntArgbPreInstance() : PixelFormat.getIntArgbInstance(),
+			currentPixels, 0, width
+		);
+
+		final boolean flip = frame.getOrientation() == StreamOrientation.BOTTOM_UP;
+
+		// Every tile changes after a resize. A full region is left as is, the detector only updates its hashes.
+		final DirtyRegion region = frame.getDirtyRegion();
+		changeDetector.detect(currentPixels, width, height, flip, region);
+
+		// Write the final region, overlapping rectangles may have been merged to cover unchanged tiles
+		write(frame, region, flip);
+	}
+
+	/** Writes the current pixels in the specified region of the frame buffer. */
+	private void write(final StreamFrame frame, final DirtyRegion region, final boolean flip) {
+		if ( frame.getFormat().getBytesPerPixel() != 4 ) {
+			writeConverted(frame, region, flip);
+			return;
+		}
+
+		final int width = frame.getWidth();
+		final int height = frame.getHeight();
+
+		// Int ARGB in little-endian order is byte BGRA, ARGB8_PRE is int ARGB in native order
+		final ByteOrder order = frame.getFormat() == StreamFormat.ARGB8_PRE ? ByteOrder.nativeOrder() : ByteOrder.LITTLE_ENDIAN;
+		final IntBuffer data = frame.getData().duplicate().order(order).asIntBuffer();
+		final int stride = frame.getStride() / 4;
+
+		for ( int i = 0; i < region.getRectCount(); i++ ) {
+			final int x = region.getX(i);
+			final int y = region.getY(i);
+			final int w = region.getWidth(i);
+			final int h = region.getHeight(i);
+
+			for ( int row = y; row < y + h; row++ ) {
+				final int imageRow = flip ? height - 1 - row : row;
+
+				data.position(row * stride + x);
+				data.put(currentPixels, imageRow * width + x, w);
+			}
+		}
+	}
+
+	/** Writes the current pixels in the specified region of the frame buffer, converted to a format smaller than int ARGB. */
+	private void writeConverted(final StreamFrame frame, final DirtyRegion region, final boolean flip) {
+		final int width = frame.getWidth();
+		final int height = frame.getHeight();
+
+		final StreamFormat format = frame.getFormat();
+		final int bpp = format.getBytesPerPixel();
+
+		// The 16-bit formats are native order shorts
+		final ByteBuffer data = frame.getData().duplicate().order(ByteOrder.nativeOrder());
+		final int stride = frame.getStride();
+
+		for ( int i = 0; i < region.getRectCount(); i++ ) {
+			final int x = region.getX(i);
+			final int y = region.getY(i);
+			final int w = region.getWidth(i);
+			final int h = region.getHeight(i);
+
+			for ( int row = y; row < y + h; row++ ) {
+				final int imageRow = flip ? height - 1 - row : row;
+
+				data.position(row * stride + x * bpp);
+				writeRow(data, format, imageRow * width + x, w);
+			}
+		}
+	}
+
+	private void writeRow(final ByteBuffer data, final StreamFormat format, final int offset, final int w) {
+		final int[] pixels = currentPixels;
+
+		switch ( format ) {
+			case RGB8:
+				for ( int i = offset; i < offset + w; i++ ) {
+					final int p = pixels[i];
+					data.put((byte)(p >> 16));
+					data.put((byte)(p >> 8));
+					data.put((byte)p);
+				}
+				break;
+			case RGB565:
+				for ( int i = offset; i < offset + w; i++ ) {
+					final int p = pixels[i];
+					data.putShort((short)(((p >> 8) & 0xF800) | ((p >> 5) & 0x07E0) | ((p >> 3) & 0x001F)));
+				}
+				break;
+			case RGBA4444:
+				// B, G, R, A from the low to the high bits
+				for ( int i = offset; i < offset + w; i++ ) {
+					final int p = pixels[i];
+					data.putShort((short)(((p >>> 16) & 0xF000) | ((p >> 12) & 0x0F00) | ((p >> 8) & 0x00F0) | ((p >> 4) & 0x000F)));
+				}
+				break;
+			case R8:
+				for ( int i = offset; i < offset + w; i++ )
+					data.put((byte)(pixels[i] >> 16));
+				break;
+			default:
+				throw new IllegalStateException("Unsupported stream format: " + format);
+		}
+	}
+
+	/**
+	 * Stops writing snapshots and releases the pending frames. Must be called from the JavaFX thread. Frames received
+	 * after this call are released immediately.
+	 */
+	public void dispose() {
+		disposed = true;
+
+		Copy copy;
+		while ( (copy = pending.poll()) != null )
+			copy.release();
+
+		// The snapshots in progress are released by their callbacks, the queued copies run to completion
+		copyExecutor.shutdown();
+	}
+
+	/** Copies the snapshot of a frame slot. */
+	private final class Copy implements Runnable {
+
+		StreamFrame   frame;
+		WritableImage image;
+
+		public void run() {
+			try {
+				copy(image, frame);
+			} finally {
+				release();
+			}
+		}
+
+		/** Releases the frame and frees the image. */
+		void release() {
+			final StreamFrame frame = this.frame;
+			final WritableImage image = this.image;
+
+			this.frame = null;
+			this.image = null;
+
+			if ( image != null )
+				freeImages.offer(image);
+			frame.release();
+		}
+
+	}
+
+}
\ No newline at end of file
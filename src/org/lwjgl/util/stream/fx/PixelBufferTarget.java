@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream.fx;
+
+import org.lwjgl.util.stream.DirtyRegion;
+import org.lwjgl.util.stream.StreamFormat;
+import org.lwjgl.util.stream.StreamFrame;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.util.Callback;
+
+/**
+ * Wraps the frame data in a JavaFX PixelBuffer, available in JavaFX 13 and later. Nothing is copied on the JavaFX thread,
+ * the only copy is the texture upload JavaFX does when it renders the image.
+ * <p/>
+ * A PixelBuffer is created for every buffer the stream sends, the data is wrapped as long as it stays at the same
+ * address. Only {@link StreamFrame#isPersistent() persistent} frames are wrapped, the data of other frames may be
+ * unmapped while the image still refers to it. Only premultiplied formats can be wrapped: {@link StreamFormat#BGRA8_PRE}
+ * as bytes and {@link StreamFormat#ARGB8_PRE} as native order ints. The image width is the stride in pixels, the view
+ * shows the frame through its viewport.
+ * <p/>
+ * JavaFX may read the data whenever it renders the image, so the frame is retained while the view shows it. The
+ * presenter copies the frame to an image JavaFX owns before it releases the frame, unless a newer frame replaces it.
+ * <p/>
+ * The class is accessed with reflection, the library still runs on earlier JavaFX versions.
+ */
+final class PixelBufferTarget extends FrameTarget {
+
+	private static final Constructor<?> PIXEL_BUFFER_CONSTRUCTOR;
+	private static final Constructor<?> IMAGE_CONSTRUCTOR;
+	private static final Method         UPDATE_BUFFER;
+
+	static {
+		Constructor<?> pixelBufferConstructor = null;
+		Constructor<?> imageConstructor = null;
+		Method updateBuffer = null;
+		try {
+			final Class<?> pixelBufferClass = Class.forName("javafx.scene.image.PixelBuffer");
+
+			pixelBufferConstructor = pixelBufferClass.getConstructor(int.class, int.class, Buffer.class, PixelFormat.class);
+			imageConstructor = WritableImage.class.getConstructor(pixelBufferClass);
+			updateBuffer = pixelBufferClass.getMethod("updateBuffer", Callback.class);
+		} catch (Exception e) {
+			pixelBufferConstructor = null;
+			imageConstructor = null;
+			updateBuffer = null;
+		}
+
+		PIXEL_BUFFER_CONSTRUCTOR = pixelBufferConstructor;
+		IMAGE_CONSTRUCTOR = imageConstructor;
+		UPDATE_BUFFER = updateBuffer;
+	}
+
+	/** The PixelBuffers of the stream buffers, indexed by slot. */
+	private Slot[] slots = new Slot[4];
+
+	private Slot current;
+
+	PixelBufferTarget(final ImageView view) {
+		super(view);
+	}
+
+	/** Returns true if the JavaFX runtime supports PixelBuffer. */
+	static boolean isAvailable() {
+		return UPDATE_BUFFER != null;
+	}
+
+	boolean supports(final StreamFrame frame) {
+		final ByteBuffer data = frame.getData();
+		final StreamFormat format = frame.getFormat();
+		return (format == StreamFormat.BGRA8_PRE || format == StreamFormat.ARGB8_PRE)
+		       && frame.isPersistent() && data.isDirect() && data.position() == 0;
+	}
+
+	boolean present(final StreamFrame frame, final boolean incremental) {
+		final int slotIndex = frame.getSlot();
+		if ( slots.length <= slotIndex ) {
+			final Slot[] newSlots = new Slot[Math.max(slots.length * 2, slotIndex + 1)];
+			System.arraycopy(slots, 0, newSlots, 0, slots.length);
+			slots = newSlots;
+		}
+
+		Slot slot = slots[slotIndex];
+		if ( slot == null || !slot.wraps(frame) )
+			slot = slots[slotIndex] = new Slot(frame);
+
+		// The image texture holds the last frame sent from this slot, only update the dirty region if that frame is
+		// the one that precedes this one.
+		final Rectangle2D dirty = incremental && slot == current ? getBounds(frame.getDirtyRegion()) : null;
+		slot.update(dirty);
+
+		if ( slot != current ) {
+			view.setImage(slot.image);
+			current = slot;
+		}
+
+		final Rectangle2D viewport = view.getViewport();
+		if ( viewport == null || viewport.getWidth() != frame.getWidth() || viewport.getHeight() != frame.getHeight() )
+			view.setViewport(new Rectangle2D(0, 0, frame.getWidth(), frame.getHeight()));
+
+		return true;
+	}
+
+	/** Returns the bounds of the specified region, or null for the whole image. */
+	private static Rectangle2D getBounds(final DirtyRegion region) {
+		if ( region == null || region.isEmpty() )
+			return null;
+
+		int x0 = Integer.MAX_VALUE;
+		int y0 = Integer.MAX_VALUE;
+		int x1 = 0;
+		int y1 = 0;
+		for ( int i = 0; i < region.getRectCount(); i++ ) {
+			x0 = Math.min(x0, region.getX(i));
+			y0 = Math.min(y0, region.getY(i));
+			x1 = Math.max(x1, region.getX(i) + region.getWidth(i));
+			y1 = Math.max(y1, region.getY(i) + region.getHeight(i));
+		}
+
+		return new Rectangle2D(x0, y0, x1 - x0, y1 - y0);
+	}
+
+	void hide() {
+		current = null;
+	}
+
+	void dispose() {
+		if ( current != null && view.getImage() == current.image )
+			view.setImage(null);
+
+		for ( int i = 0; i < slots.length; i++ )
+			slots[i] = null;
+		current = null;
+	}
+
+	private static final class Slot {
+
+		private final ByteBuffer   data;
+		private final StreamFormat format;
+		private final int          stride;
+		private final int          height;
+
+		private final Object        pixelBuffer;
+		private final WritableImage image;
+
+		private Rectangle2D dirty;
+
+		private final Callback<Object, Rectangle2D> callback = new Callback<Object, Rectangle2D>() {
+			public Rectangle2D call(final Object pixelBuffer) {
+				return dirty;
+			}
+		};
+
+		Slot(final StreamFrame frame) {
+			this.data = frame.getData();
+			this.format = frame.getFormat();
+			this.stride = frame.getStride();
+			this.height = frame.getHeight();
+
+			final Buffer buffer;
+			final PixelFormat<?> pixelFormat;
+			if ( format == StreamFormat.ARGB8_PRE ) {
+				buffer = data.duplicate().order(ByteOrder.nativeOrder()).asIntBuffer();
+				pixelFormat = PixelFormat.getIntArgbPreInstance();
+			} else {
+				buffer = data;
+				pixelFormat = PixelFormat.getByteBgraPreInstance();
+			}
+
+			try {
+				pixelBuffer = PIXEL_BUFFER_CONSTRUCTOR.newInstance(stride / 4, height, buffer, pixelFormat);
+				image = (WritableImage)IMAGE_CONSTRUCTOR.newInstance(pixelBuffer);
+			} catch (Exception e) {
+				throw new IllegalStateException("Failed to create a PixelBuffer.", e);
+			}
+		}
+
+		boolean wraps(final StreamFrame frame) {
+			return data == frame.getData() && format == frame.getFormat() && stride == frame.getStride() && height == frame.getHeight();
+		}
+
+		/** Marks the specified region of the image as changed, the whole image if null. */
+		void update(final Rectangle2D dirty) {
+			this.dirty = dirty;
+			try {
+				UPDATE_BUFFER.invoke(pixelBuffer, callback);
+			} catch (Exception e) {
+				throw new IllegalStateException("Failed to update a PixelBuffer.", e);
+			}
+		}
+
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream.fx;
+
+import org.lwjgl.util.stream.StreamFormat;
+import org.lwjgl.util.stream.StreamFormatHandler;
+import org.lwjgl.util.stream.StreamFrame;
+import org.lwjgl.util.stream.StreamFrameHandler;
+import org.lwjgl.util.stream.StreamOrientation;
+import org.lwjgl.util.stream.StreamSignal;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.scene.image.ImageView;
+
+/**
+ * A {@link StreamFrameHandler} that presents the frames of a stream on a JavaFX {@link ImageView}. The stream dimensions
+ * follow the fit dimensions of the view.
+ * <p/>
+ * Frames are passed to the JavaFX thread through a single-slot mailbox that holds the latest frame. The mailbox is
+ * drained once per pulse, by an {@link AnimationTimer}, so no tasks are queued with {@link Platform#runLater}. A frame
+ * that is replaced before it has been presented is released immediately, the render thread never waits for a JavaFX
+ * thread that has fallen behind.
+ * <p/>
+ * On JavaFX 13 and later, the data of {@link StreamFrame#isPersistent() persistent} frames is wrapped in a PixelBuffer
+ * and is not copied on the JavaFX thread. The presented frame is kept until the pulse that presented it has been
+ * rendered, which is known two pulses later. The buffer is then released, so the stream never waits longer than that
+ * for it. If no newer frame replaces it in that pulse, the frame is first copied to a WritableImage, the view never
+ * shows a buffer the stream may overwrite or unmap. Other frames are copied to a WritableImage that is reused across
+ * resizes. In both cases, only the dirty region is uploaded when the view shows the preceding frame.
+ * <p/>
+ * Streams created for this presenter read back frames in the preferred format, {@link StreamFormat#BGRA8_PRE} by
+ * default. That is the native format of JavaFX images, so the frames are not converted on the CPU. JavaFX images are
+ * also top-down, streams should be set to {@link StreamOrientation#TOP_DOWN}. Bottom-up frames are shown flipped, with
+ * the vertical scale of the view.
+ */
+public class StreamPresenter implements StreamFrameHandler, StreamFormatHandler {
+
+	private final ImageView view;
+
+	private final AtomicReference<StreamFrame> mailbox = new AtomicReference<StreamFrame>();
+
+	private final AnimationTimer timer;
+
+	private volatile int width;
+	private volatile int height;
+
+	private volatile StreamFormat preferredFormat = StreamFormat.BGRA8_PRE;
+
+	private volatile long presentedFrames;
+	private volatile long supersededFrames;
+
+	/** The index of the frame received before the frame in each slot. Written before the frame is posted. */
+	private long[] predecessors = new long[4];
+	private long   lastReceived = -1L;
+
+	private final FrameTarget pixelBufferTarget;
+	private final FrameTarget imageTarget;
+
+	private FrameTarget target;
+	private StreamFrame retained;
+	private long        retainedPulse;
+	private long        lastPresented = -1L;
+
+	private long pulse;
+	private long lastUpload;
+
+	private volatile boolean disposed;
+
+	/** Creates a presenter for the specified view. May be called from any thread. */
+	public StreamPresenter(final ImageView view) {
+		this(view, true);
+	}
+
+	/**
+	 * Creates a presenter for the specified view. May be called from any thread.
+	 *
+	 * @param zeroCopy if true, the frame data is wrapped in a PixelBuffer when supported
+	 */
+	public StreamPresenter(final ImageView view, final boolean zeroCopy) {
+		this.view = view;
+
+		this.pixelBufferTarget = zeroCopy && PixelBufferTarget.isAvailable() ? new PixelBufferTarget(view) : null;
+		this.imageTarget = new WritableImageTarget(view);
+
+		this.timer = new AnimationTimer() {
+			public void handle(final long now) {
+				present();
+			}
+		};
+
+		if ( Platform.isFxApplicationThread() )
+			start();
+		else
+			Platform.runLater(new Runnable() {
+				public void run() {
+					start();
+				}
+			});
+	}
+
+	private void start() {
+		if ( disposed )
+			return;
+
+		final ChangeListener<Number> sizeListener = new ChangeListener<Number>() {
+			public void changed(final ObservableValue<? extends Number> observableValue, final Number oldValue, final Number newValue) {
+				updateSize();
+			}
+		};
+		view.fitWidthProperty().addListener(sizeListener);
+		view.fitHeightProperty().addListener(sizeListener);
+		updateSize();
+
+		timer.start();
+	}
+
+	private void updateSize() {
+		width = (int)view.getFitWidth();
+		height = (int)view.getFitHeight();
+	}
+
+	/** Returns true if the JavaFX runtime supports presenting frames without copying them. */
+	public static boolean isZeroCopySupported() {
+		return PixelBufferTarget.isAvailable();
+	}
+
+	public ImageView getView() {
+		return view;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public StreamFormat getPreferredFormat() {
+		return preferredFormat;
+	}
+
+	/**
+	 * Sets the format streams should read back frames in. Applies to streams created after this call.
+	 *
+	 * @param format one of {@link StreamFormat#BGRA8}, {@link StreamFormat#BGRA8_PRE}, {@link StreamFormat#ARGB8_PRE} or
+	 *               {@link StreamFormat#RGB8}
+	 */
+	public void setPreferredFormat(final StreamFormat format) {
+		if ( WritableImageTarget.getPixelFormat(format) == null )
+			throw new IllegalArgumentException("Unsupported stream format: " + format);
+
+		this.preferredFormat = format;
+	}
+
+	/** Returns the number of frames uploaded to the view. */
+	public long getPresentedFrames() {
+		return presentedFrames;
+	}
+
+	/** Returns the number of frames that were replaced by a newer frame before they could be presented. */
+	public long getSupersededFrames() {
+		return supersededFrames;
+	}
+
+	public void process(final StreamFrame frame) {
+		// This method runs in the rendering thread
+		final int slot = frame.getSlot();
+		if ( predecessors.length <= slot ) {
+			final long[] newPredecessors = new long[Math.max(predecessors.length * 2, slot + 1)];
+			System.arraycopy(predecessors, 0, newPredecessors, 0, predecessors.length);
+			predecessors = newPredecessors;
+		}
+		// The dirty region of the frame is relative to this one
+		predecessors[slot] = lastReceived;
+		lastReceived = frame.getIndex();
+
+		final StreamFrame previous = mailbox.getAndSet(frame);
+		if ( previous != null ) {
+			previous.release();
+			supersededFrames++;
+		}
+
+		if ( disposed ) {
+			// The timer has been stopped, nobody will drain the mailbox
+			final StreamFrame pending = mailbox.getAndSet(null);
+			if ( pending != null )
+				pending.release();
+		}
+	}
+
+	/** Presents a {@link StreamFormat#BGRA8} buffer, like a frame. Streams send a {@link StreamFrame} instead. */
+	public void process(final int width, final int height, final ByteBuffer data, final int stride, final StreamSignal signal) {
+		process(new StreamFrame(width, height, data, stride, signal));
+	}
+
+	/** Uploads the latest frame, if there is one. Runs in the JavaFX thread, once per pulse. */
+	private void present() {
+		pulse++;
+
+		// setPixels triggers a new pulse within the current frame. Skip it, uploading on both would double the uploads
+		// and cause exceptions on certain configurations (e.g. Nvidia GPU with the D3D pipeline).
+		StreamFrame frame = pulse <= lastUpload + 1 ? null : mailbox.getAndSet(null);
+
+		// If the view is hidden, e.g. because we're quitting, discard the frame. Also discard frames in a format JavaFX
+		// cannot display, e.g. from a stream that does not support the preferred format.
+		if ( frame != null && (!view.isVisible() || !imageTarget.supports(frame)) ) {
+			frame.release();
+			frame = null;
+		}
+
+		// The pulse that presented the retained frame has been rendered. Notify the render thread that we're done
+		// processing it, but not before the view stops showing its buffer.
+		if ( retained != null && retainedPulse + 2 <= pulse ) {
+			try {
+				if ( frame == null )
+					detach(retained);
+			} finally {
+				retained.release();
+				retained = null;
+			}
+		}
+
+		if ( frame != null )
+			present(frame);
+	}
+
+	/** Replaces the wrapped data of the specified frame with a copy JavaFX owns. */
+	private void detach(final StreamFrame frame) {
+		setTarget(imageTarget);
+		imageTarget.present(frame, false);
+
+		lastUpload = pulse;
+		lastPresented = frame.getIndex();
+	}
+
+	private void present(final StreamFrame frame) {
+		final FrameTarget target = pixelBufferTarget != null && pixelBufferTarget.supports(frame)
+		                           ? pixelBufferTarget
+		                           : imageTarget;
+
+		final double scaleY = frame.getOrientation() == StreamOrientation.BOTTOM_UP ? -1.0 : 1.0;
+		if ( view.getScaleY() != scaleY )
+			view.setScaleY(scaleY);
+
+		boolean retain = false;
+		try {
+			setTarget(target);
+
+			final boolean incremental = lastPresented != -1L && predecessors[frame.getSlot()] == lastPresented;
+			retain = target.present(frame, incremental);
+
+			lastUpload = pulse;
+			lastPresented = frame.getIndex();
+			presentedFrames++;
+		} finally {
+			// Uploads are two pulses apart, the previous retained frame has been released above
+			if ( retain ) {
+				retained = frame;
+				retainedPulse = pulse;
+			} else
+				frame.release();
+		}
+	}
+
+	private void setTarget(final FrameTarget target) {
+		if ( target == this.target )
+			return;
+
+		if ( this.target != null )
+			this.target.hide();
+		this.target = target;
+		lastPresented = -1L;
+	}
+
+	/**
+	 * Stops presenting frames and releases the pending frame. Must be called from the JavaFX thread. Frames received
+	 * after this call are released immediately.
+	 */
+	public void dispose() {
+		disposed = true;
+		timer.stop();
+
+		final StreamFrame frame = mailbox.getAndSet(null);
+		if ( frame != null )
+			frame.release();
+
+		if ( pixelBufferTarget != null )
+			pixelBufferTarget.dispose();
+		imageTarget.dispose();
+		target = null;
+		if ( retained != null ) {
+			retained.release();
+			retained = null;
+		}
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2002-2012 LWJGL Project
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'LWJGL' nor the names of
+ *   its contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.lwjgl.util.stream.fx;
+
+import org.lwjgl.util.stream.DirtyRegion;
+import org.lwjgl.util.stream.StreamFormat;
+import org.lwjgl.util.stream.StreamFrame;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+
+/**
+ * Copies the frames to a {@link WritableImage}. The image is reused across resizes: it is allocated with some headroom
+ * and the view shows the frame through its viewport. It is only reallocated when a frame does not fit, or is less
+ * than half its size.
+ * <p/>
+ * The data is passed with the JavaFX pixel format that matches the stream format. JavaFX converts it to the format of
+ * the image, unless the stream format is {@link StreamFormat#BGRA8_PRE}.
+ */
+final class WritableImageTarget extends FrameTarget {
+
+	private WritableImage image;
+
+	private int capacityWidth;
+	private int capacityHeight;
+
+	WritableImageTarget(final ImageView view) {
+		super(view);
+	}
+
+	boolean supports(final StreamFrame frame) {
+		return getPixelFormat(frame.getFormat()) != null;
+	}
+
+	static PixelFormat<?> getPixelFormat(final StreamFormat format) {
+		switch ( format ) {
+			case BGRA8:
+				return PixelFormat.getByteBgraInstance();
+			case BGRA8_PRE:
+				return PixelFormat.getByteBgraPreInstance();
+			case ARGB8_PRE:
+				return PixelFormat.getIntArgbPreInstance();
+			case RGB8:
+				return PixelFormat.getByteRgbInstance();
+			default:
+				return null;
+		}
+	}
+
+	boolean present(final StreamFrame frame, final boolean incremental) {
+		final int width = frame.getWidth();
+		final int height = frame.getHeight();
+
+		final boolean reallocate = image == null
+		                           || capacityWidth < width || capacityHeight < height
+		                           || width * 2 < capacityWidth || height * 2 < capacityHeight;
+		if ( reallocate ) {
+			// Add 25% headroom after the first allocation, the view is probably being resized interactively
+			capacityWidth = image == null ? width : width + (width >> 2);
+			capacityHeight = image == null ? height : height + (height >> 2);
+
+			image = new WritableImage(Math.max(capacityWidth, 1), Math.max(capacityHeight, 1));
+		}
+		if ( view.getImage() != image )
+			view.setImage(image);
+
+		final Rectangle2D viewport = view.getViewport();
+		if ( viewport == null || viewport.getWidth() != width || viewport.getHeight() != height )
+			view.setViewport(new Rectangle2D(0, 0, width, height));
+
+		final PixelFormat<?> pixelFormat = getPixelFormat(frame.getFormat());
+		final int bytesPerPixel = frame.getFormat().getBytesPerPixel();
+
+		// IntArgbPre is passed as ints, the stride is in pixels then
+		final boolean ints = pixelFormat.getType() == PixelFormat.Type.INT_ARGB_PRE;
+		final int stride = ints ? frame.getStride() / 4 : frame.getStride();
+		final int pixelSize = ints ? 1 : bytesPerPixel;
+		final Buffer data = ints
+		                    ? frame.getData().duplicate().order(ByteOrder.nativeOrder()).asIntBuffer()
+		                    : frame.getData().duplicate();
+
+		final PixelWriter pw = image.getPixelWriter();
+		final DirtyRegion region = frame.getDirtyRegion();
+		if ( !incremental || reallocate || region == null )
+			setPixels(pw, pixelFormat, 0, 0, width, height, data, stride);
+		else {
+			// The pixel at (x, y) is read from the buffer position
+			final int position = data.position();
+			for ( int i = 0; i < region.getRectCount(); i++ ) {
+				final int x = region.getX(i);
+				final int y = region.getY(i);
+
+				data.position(position + y * stride + x * pixelSize);
+				setPixels(pw, pixelFormat, x, y, region.getWidth(i), region.getHeight(i), data, stride);
+			}
+		}
+
+		return false;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void setPixels(final PixelWriter pw, final PixelFormat<?> pixelFormat, final int x, final int y, final int w, final int h, final Buffer data, final int stride) {
+		if ( data instanceof IntBuffer )
+			pw.setPixels(x, y, w, h, (PixelFormat<IntBuffer>)pixelFormat, (IntBuffer)data, stride);
+		else
+			pw.setPixels(x, y, w, h, (PixelFormat<ByteBuffer>)pixelFormat, (ByteBuffer)data, stride);
+	}
+
+	void hide() {
+		// The image is kept, the next frame is uploaded in full
+	}
+
+	void dispose() {
+		if ( image != null && view.getImage() == image )
+			view.setImage(null);
+		image = null;
+	}
+
+}
\ No newline at end of file